@@ -0,0 +1,70 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import java.util.List;
+
+/**
+ * Suggests account ids from an {@link AccountIdStore} as they are typed into an
+ * AutoCompleteTextView.
+ */
+public class AccountIdAdapter extends ArrayAdapter<String> {
+
+    static final int MAX_SUGGESTIONS = 5;
+
+    private final AccountIdStore mAccountIds;
+
+    private final Filter mFilter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            // Runs on the filter thread, the store is safe to use from any thread
+            List<String> ids = mAccountIds.complete(
+                    constraint == null ? "" : constraint.toString(), MAX_SUGGESTIONS);
+
+            FilterResults results = new FilterResults();
+            results.values = ids;
+            results.count = ids.size();
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            setNotifyOnChange(false);
+            clear();
+            if (results.values != null) {
+                addAll((List<String>) results.values);
+            }
+            notifyDataSetChanged();
+        }
+    };
+
+    public AccountIdAdapter(Context context, AccountIdStore accountIds) {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+        mAccountIds = accountIds;
+    }
+
+    @NonNull
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Account ids the user has signed in with, saved or retrieved on this device, for suggesting
+ * them in the email field without a round trip to the Credentials API.
+ *
+ * The ids are kept in memory in an {@link AccountIdTrie}, so completing what has been typed is
+ * only a walk of the trie. They are written to disk encrypted with AES-GCM, under a key that is
+ * generated in the Android Keystore and never leaves it. The Keystore can only hold AES keys from
+ * Android M, so on older devices the ids are not written to disk at all and last as long as the
+ * process. Reading and writing the file happen on a background thread, and suggestions are
+ * empty until the file has been read.
+ *
+ * Safe to use from any thread.
+ */
+public class AccountIdStore {
+
+    private static final String TAG = "AccountIdStore";
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "account_ids";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final AccountIdTrie mTrie = new AccountIdTrie();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * @param file where the encrypted ids are kept, read in the background straight away.
+     */
+    public AccountIdStore(@NonNull File file) {
+        mFile = file;
+        if (isPersistent()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return up to limit ids starting with the prefix, ignoring case.
+     */
+    public List<String> complete(String prefix, int limit) {
+        synchronized (mTrie) {
+            return mTrie.complete(prefix, limit);
+        }
+    }
+
+    public void add(String id) {
+        if (id == null || id.isEmpty()) {
+            return;
+        }
+        synchronized (mTrie) {
+            if (!mTrie.add(id)) {
+                return;
+            }
+        }
+        save();
+    }
+
+    public void remove(String id) {
+        if (id == null) {
+            return;
+        }
+        synchronized (mTrie) {
+            if (!mTrie.remove(id)) {
+                return;
+            }
+        }
+        save();
+    }
+
+    private static boolean isPersistent() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try {
+            byte[] plaintext = decrypt(readFully(mFile));
+            List<String> ids = Arrays.asList(new String(plaintext, UTF_8).split("\n"));
+            synchronized (mTrie) {
+                for (String id : ids) {
+                    if (!id.isEmpty()) {
+                        mTrie.add(id);
+                    }
+                }
+            }
+            Log.d(TAG, "Loaded " + ids.size() + " account ids");
+        } catch (IOException | GeneralSecurityException e) {
+            // For example the key was removed with the app's data, start again
+            Log.w(TAG, "Could not read account ids", e);
+            if (!mFile.delete()) {
+                Log.w(TAG, "Could not delete " + mFile);
+            }
+        }
+    }
+
+    private void save() {
+        if (!isPersistent()) {
+            return;
+        }
+
+        // The ids are read when the write runs, after the file has been loaded, so ids added
+        // before then don't replace the ones on disk
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    private void write() {
+        List<String> ids;
+        synchronized (mTrie) {
+            ids = mTrie.getAll();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String id : ids) {
+            sb.append(id).append('\n');
+        }
+
+        // Write to a temporary file first so a crash never leaves a partial file
+        File tmp = new File(mFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(encrypt(sb.toString().getBytes(UTF_8)));
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "Could not write account ids", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore, already failing
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the IV length, the IV and then the ciphertext.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getKey());
+        byte[] iv = cipher.getIV();
+        byte[] ciphertext = cipher.doFinal(plaintext);
+
+        byte[] out = new byte[1 + iv.length + ciphertext.length];
+        out[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, out, 1, iv.length);
+        System.arraycopy(ciphertext, 0, out, 1 + iv.length, ciphertext.length);
+        return out;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] decrypt(byte[] in) throws GeneralSecurityException {
+        int ivLength = in.length > 0 ? in[0] & 0xff : 0;
+        if (ivLength == 0 || in.length < 1 + ivLength) {
+            throw new GeneralSecurityException("Truncated account ids file");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, getKey(),
+                new GCMParameterSpec(TAG_LENGTH_BITS, in, 1, ivLength));
+        return cipher.doFinal(in, 1 + ivLength, in.length - 1 - ivLength);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static SecretKey getKey() throws GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        try {
+            keyStore.load(null);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+        if (keyStore.containsAlias(KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        }
+
+        KeyGenerator keyGenerator =
+                KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        keyGenerator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        return keyGenerator.generateKey();
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
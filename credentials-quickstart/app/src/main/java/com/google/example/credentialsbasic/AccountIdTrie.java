@@ -0,0 +1,139 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prefix tree of account ids, for completing an id as it is typed. Matching ignores case, and
+ * completions come back in alphabetical order. Looking up a prefix only walks the characters typed
+ * and then the completions returned, however many ids are stored.
+ *
+ * Not thread safe.
+ */
+public class AccountIdTrie {
+
+    private static class Node {
+        final Map<Character, Node> children = new TreeMap<>();
+        // The id as it was added, if one ends here
+        String id;
+    }
+
+    private final Node mRoot = new Node();
+    private int mSize = 0;
+
+    /**
+     * Add an id, replacing one that differs only in case.
+     * @return true if the id wasn't already stored.
+     */
+    public boolean add(String id) {
+        Node node = mRoot;
+        for (char c : normalize(id).toCharArray()) {
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+            }
+            node = child;
+        }
+
+        boolean added = (node.id == null);
+        if (added) {
+            mSize++;
+        }
+        node.id = id;
+        return added;
+    }
+
+    /**
+     * Remove an id, ignoring case.
+     * @return true if the id was stored.
+     */
+    public boolean remove(String id) {
+        String key = normalize(id);
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = mRoot;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            path.push(node);
+            node = node.children.get(key.charAt(i));
+        }
+        if (node == null || node.id == null) {
+            return false;
+        }
+
+        node.id = null;
+        mSize--;
+
+        // Prune the nodes that no longer lead to an id
+        for (int i = key.length() - 1; i >= 0 && node.id == null && node.children.isEmpty(); i--) {
+            Node parent = path.pop();
+            parent.children.remove(key.charAt(i));
+            node = parent;
+        }
+        return true;
+    }
+
+    /**
+     * @param prefix the start of an id, in any case.
+     * @param limit the most ids to return.
+     * @return the ids starting with the prefix, in alphabetical order.
+     */
+    public List<String> complete(String prefix, int limit) {
+        List<String> ids = new ArrayList<>();
+        Node node = mRoot;
+        for (char c : normalize(prefix).toCharArray()) {
+            node = node.children.get(c);
+            if (node == null) {
+                return ids;
+            }
+        }
+        collect(node, ids, limit);
+        return ids;
+    }
+
+    /**
+     * @return every id, in alphabetical order.
+     */
+    public List<String> getAll() {
+        return complete("", mSize);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    private static void collect(Node node, List<String> ids, int limit) {
+        if (ids.size() >= limit) {
+            return;
+        }
+        if (node.id != null) {
+            ids.add(node.id);
+        }
+        for (Node child : node.children.values()) {
+            collect(child, ids, limit);
+        }
+    }
+
+    private static String normalize(String id) {
+        return id.toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The set of audiences ID tokens are accepted for, held in a hash set so checking a token is a
+ * constant time lookup however many client apps are registered.
+ *
+ * The audiences are read from a registry file, which is reloaded when it changes. Each line of
+ * the file is either a package name and the SHA512 hash of its signing key, separated by
+ * whitespace, for an {@code android://<SHA512>@<PACKAGE_NAME>} audience, or a single literal
+ * audience such as a web client ID. Blank lines and lines starting with # are ignored. While the
+ * file doesn't exist the default audiences are used.
+ *
+ * The file is read in the constructor, and after that checked for changes on an executor so that
+ * a lookup, which may be on the main thread, never touches the disk. Lookups use the audiences
+ * already loaded until the check finishes.
+ */
+public class AudienceRegistry {
+
+    private static final String TAG = "AudienceRegistry";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Don't look at the file more often than this
+    private static final long CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final File file;
+    private final Set<String> defaults;
+    private final Executor executor;
+    private final AtomicBoolean checkPending = new AtomicBoolean();
+
+    private final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                reload(false);
+            } finally {
+                checkPending.set(false);
+            }
+        }
+    };
+
+    private volatile Set<String> audiences;
+    private volatile long nextCheckMillis;
+    // Guarded by this
+    private long lastModified;
+
+    /**
+     * @param file the registry file, or null to only use the defaults.
+     * @param defaults audiences to use while there is no registry file.
+     * @param executor the file is checked for changes on.
+     */
+    public AudienceRegistry(@Nullable File file, @NonNull Collection<String> defaults,
+                            @NonNull Executor executor) {
+        this.file = file;
+        this.defaults = Collections.unmodifiableSet(new HashSet<>(defaults));
+        this.executor = executor;
+        audiences = this.defaults;
+        if (file != null) {
+            reload(true);
+        }
+    }
+
+    /**
+     * Build the audience of ID tokens issued to an Android app.
+     * @param sha512Hash sha512 hash of the application, see README for instructions.
+     * @param packageName package name of the application.
+     */
+    public static String getAndroidAudience(String sha512Hash, String packageName) {
+        return "android://" + sha512Hash + "@" + packageName;
+    }
+
+    /**
+     * @return true if every one of the audiences is registered.
+     */
+    public boolean containsAll(Collection<String> tokenAudiences) {
+        if (tokenAudiences.isEmpty()) {
+            return false;
+        }
+        checkIfDue();
+        Set<String> current = audiences;
+        for (String audience : tokenAudiences) {
+            if (!current.contains(audience)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return audiences.size();
+    }
+
+    private void checkIfDue() {
+        // Checked without locking so lookups don't contend between checks of the file
+        if (file == null || System.currentTimeMillis() < nextCheckMillis
+                || !checkPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(check);
+        } catch (RejectedExecutionException e) {
+            // Tried again on a later lookup
+            Log.w(TAG, "Could not check " + file, e);
+            checkPending.set(false);
+        }
+    }
+
+    private synchronized void reload(boolean force) {
+        nextCheckMillis = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+
+        // lastModified() is 0 for a missing file, which switches back to the defaults
+        long modified = file.lastModified();
+        if (!force && modified == lastModified) {
+            return;
+        }
+        lastModified = modified;
+
+        if (modified == 0) {
+            audiences = defaults;
+            return;
+        }
+        try {
+            audiences = read(file);
+            Log.d(TAG, "Loaded " + audiences.size() + " audiences from " + file);
+        } catch (IOException e) {
+            // Keep the audiences we had
+            Log.w(TAG, "Could not read " + file, e);
+        }
+    }
+
+    private static Set<String> read(File file) throws IOException {
+        Set<String> audiences = new HashSet<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length == 1) {
+                    audiences.add(fields[0]);
+                } else if (fields.length == 2) {
+                    audiences.add(getAndroidAudience(fields[1], fields[0]));
+                } else {
+                    Log.w(TAG, "Ignoring line: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return Collections.unmodifiableSet(audiences);
+    }
+}
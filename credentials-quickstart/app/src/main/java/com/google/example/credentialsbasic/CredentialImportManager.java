@@ -0,0 +1,216 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.credentials.Credential;
+import com.google.android.gms.auth.api.credentials.CredentialsClient;
+import com.google.android.gms.common.api.ResolvableApiException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a {@link CredentialImporter} for the whole process, so an import carries on across
+ * configuration changes and while no activity is started.
+ *
+ * The import file is opened and read on a background thread, and closed before the saves start.
+ * Confirmations the importer needs are queued on the {@link ResolutionScheduler}, which shows them
+ * in whichever activity is attached; that activity passes the result back with
+ * {@link #onResolutionResult(boolean)}. The outcome is delivered to the attached
+ * {@link Callbacks}, or kept until one attaches.
+ *
+ * All methods must be called on the main thread.
+ */
+public class CredentialImportManager implements CredentialImporter.Listener {
+
+    private static final String TAG = "CredentialImportMgr";
+
+    public interface Callbacks {
+        /**
+         * Called when the import file could not be read, so nothing was imported.
+         */
+        void onImportFailed(IOException e);
+
+        /**
+         * Called once every record has been saved, failed or declined.
+         */
+        void onImportComplete(List<CredentialImporter.Result> results);
+    }
+
+    private final CredentialsClient mCredentialsClient;
+    private final File mFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private Callbacks mCallbacks;
+    private boolean mImporting = false;
+    private int mRequestCode;
+    private CredentialImporter mImporter;
+
+    // Outcome of an import that finished while nothing was attached
+    private IOException mPendingError;
+    private List<CredentialImporter.Result> mPendingResults;
+
+    /**
+     * @param file credentials to import, one {@code id,password} per line.
+     */
+    public CredentialImportManager(CredentialsClient credentialsClient, @NonNull File file) {
+        mCredentialsClient = credentialsClient;
+        mFile = file;
+    }
+
+    /**
+     * Deliver the outcome of imports to the callbacks until {@link #detach(Callbacks)}, starting
+     * with one that finished while nothing was attached.
+     */
+    public void attach(@NonNull Callbacks callbacks) {
+        mCallbacks = callbacks;
+        if (mPendingError != null) {
+            IOException e = mPendingError;
+            mPendingError = null;
+            callbacks.onImportFailed(e);
+        } else if (mPendingResults != null) {
+            List<CredentialImporter.Result> results = mPendingResults;
+            mPendingResults = null;
+            callbacks.onImportComplete(results);
+        }
+    }
+
+    public void detach(@NonNull Callbacks callbacks) {
+        if (mCallbacks == callbacks) {
+            mCallbacks = null;
+        }
+    }
+
+    public boolean isImporting() {
+        return mImporting;
+    }
+
+    /**
+     * Import the file, unless an import is already running.
+     * @param requestCode request code for the confirmations the import needs.
+     * @return false if an import is already running.
+     */
+    public boolean start(int requestCode) {
+        if (mImporting) {
+            return false;
+        }
+        mImporting = true;
+        mRequestCode = requestCode;
+        mPendingError = null;
+        mPendingResults = null;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Credential> records = new ArrayList<>();
+                IOException error = null;
+                try {
+                    readRecords(records);
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                final IOException readError = error;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRecordsRead(records, readError);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Continue the import after the resolution it asked for.
+     * @param confirmed true if the user confirmed the save.
+     */
+    public void onResolutionResult(boolean confirmed) {
+        if (mImporter == null) {
+            // For example the process was restarted while the resolution was showing
+            Log.w(TAG, "onResolutionResult: no import running");
+            return;
+        }
+        mImporter.onResolutionResult(confirmed);
+    }
+
+    @Override
+    public void onImportProgress(int saved, int failed, int parked) {
+        Log.d(TAG, "Import progress: saved=" + saved + ", failed=" + failed
+                + ", waiting=" + parked);
+    }
+
+    @Override
+    public void onImportResolutionRequired(ResolvableApiException rae, int count) {
+        Log.d(TAG, "Import needs confirmation for " + count + " credentials");
+        ResolutionScheduler.getInstance().enqueue(rae, mRequestCode);
+    }
+
+    @Override
+    public void onImportComplete(List<CredentialImporter.Result> results) {
+        mImporting = false;
+        mImporter = null;
+        if (mCallbacks != null) {
+            mCallbacks.onImportComplete(results);
+        } else {
+            mPendingResults = results;
+        }
+    }
+
+    private void onRecordsRead(List<Credential> records, @Nullable IOException error) {
+        if (error != null) {
+            Log.e(TAG, "Could not read " + mFile, error);
+            mImporting = false;
+            if (mCallbacks != null) {
+                mCallbacks.onImportFailed(error);
+            } else {
+                mPendingError = error;
+            }
+            return;
+        }
+
+        mImporter = new CredentialImporter(mCredentialsClient, records.iterator(), this);
+        mImporter.start();
+    }
+
+    private void readRecords(List<Credential> records) throws IOException {
+        CredentialImporter.CsvRecords csv = new CredentialImporter.CsvRecords(new BufferedReader(
+                new InputStreamReader(new FileInputStream(mFile), "UTF-8")));
+        try {
+            Credential record;
+            while ((record = csv.read()) != null) {
+                records.add(record);
+            }
+        } finally {
+            csv.close();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.credentials.Credential;
+import com.google.android.gms.auth.api.credentials.CredentialsClient;
+import com.google.android.gms.common.api.ResolvableApiException;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Saves many credentials to the Credentials API, for example when migrating users from another
+ * password store.
+ *
+ * Records are read from an iterator as they are needed, and up to {@link #MAX_IN_FLIGHT} saves
+ * run at once. Saves that need the user to confirm them are parked rather than showing UI while
+ * other saves run. Once everything else has been saved the listener is asked to show the
+ * resolution for the first parked record. Smart Lock confirms each credential separately, so
+ * after the user confirms, the rest are saved again and each one that still needs confirming is
+ * resolved in turn. Declining one declines the rest.
+ *
+ * All methods must be called on the main thread, where the listener is also called.
+ */
+public class CredentialImporter {
+
+    private static final String TAG = "CredentialImporter";
+
+    static final int MAX_IN_FLIGHT = 4;
+
+    public interface Listener {
+        /**
+         * Called each time a save completes.
+         * @param saved records saved so far.
+         * @param failed records that could not be saved.
+         * @param parked records waiting for the user to confirm the save.
+         */
+        void onImportProgress(int saved, int failed, int parked);
+
+        /**
+         * Called when parked records need the user to confirm. Start the resolution and then call
+         * {@link #onResolutionResult(boolean)} with its outcome.
+         * @param count number of records waiting on the confirmation.
+         */
+        void onImportResolutionRequired(ResolvableApiException rae, int count);
+
+        /**
+         * Called once every record has been saved, failed or declined.
+         * @param results the result of each record, in the order they were read.
+         */
+        void onImportComplete(List<Result> results);
+    }
+
+    /**
+     * The outcome of importing one record.
+     */
+    public static class Result {
+        public static final int PENDING = 0;
+        public static final int SAVED = 1;
+        public static final int FAILED = 2;
+        public static final int DECLINED = 3;
+
+        private final Credential mCredential;
+        private int mStatus = PENDING;
+        private Exception mError;
+
+        Result(Credential credential) {
+            mCredential = credential;
+        }
+
+        public Credential getCredential() {
+            return mCredential;
+        }
+
+        /**
+         * @return one of {@link #SAVED}, {@link #FAILED} or {@link #DECLINED}, or
+         *         {@link #PENDING} while the import is running.
+         */
+        public int getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return why the record failed, or why it is waiting for the user.
+         */
+        @Nullable
+        public Exception getError() {
+            return mError;
+        }
+    }
+
+    private final CredentialsClient mCredentialsClient;
+    private final CredentialRepository mCredentialRepository;
+    private final Listener mListener;
+
+    private final List<Result> mResults = new ArrayList<>();
+    private final List<Result> mParked = new ArrayList<>();
+    private Iterator<Credential> mRecords;
+    private Iterator<Result> mRetries = Collections.<Result>emptyList().iterator();
+    private int mInFlight = 0;
+    private int mSaved = 0;
+    private int mFailed = 0;
+    private boolean mResolving = false;
+
+    public CredentialImporter(CredentialsClient credentialsClient, Iterator<Credential> records,
+                              Listener listener) {
+        mCredentialsClient = credentialsClient;
+        mCredentialRepository = CredentialRepository.getInstance();
+        mRecords = records;
+        mListener = listener;
+    }
+
+    public void start() {
+        fill();
+    }
+
+    /**
+     * Continue after the resolution asked for by the listener.
+     * @param confirmed true if the user confirmed the save.
+     */
+    public void onResolutionResult(boolean confirmed) {
+        if (!mResolving) {
+            Log.w(TAG, "onResolutionResult: no resolution in progress");
+            return;
+        }
+        mResolving = false;
+
+        // The resolution was for the first parked record
+        Result resolved = mParked.remove(0);
+        if (!confirmed) {
+            resolved.mStatus = Result.DECLINED;
+            for (Result result : mParked) {
+                result.mStatus = Result.DECLINED;
+            }
+            mParked.clear();
+            mListener.onImportComplete(Collections.unmodifiableList(mResults));
+            return;
+        }
+
+        resolved.mStatus = Result.SAVED;
+        resolved.mError = null;
+        mSaved++;
+        mCredentialRepository.onSaveConfirmed(resolved.mCredential);
+
+        // Save the rest again now the user has agreed
+        mRetries = new ArrayList<>(mParked).iterator();
+        mParked.clear();
+        mListener.onImportProgress(mSaved, mFailed, 0);
+        fill();
+    }
+
+    /**
+     * Start saves until {@link #MAX_IN_FLIGHT} are running or there are no more records.
+     */
+    private void fill() {
+        while (mInFlight < MAX_IN_FLIGHT) {
+            Result result;
+            if (mRetries.hasNext()) {
+                result = mRetries.next();
+            } else if (mRecords.hasNext()) {
+                result = new Result(mRecords.next());
+                mResults.add(result);
+            } else {
+                break;
+            }
+            save(result);
+        }
+
+        if (mInFlight == 0) {
+            onPipelineDrained();
+        }
+    }
+
+    private void save(final Result result) {
+        mInFlight++;
+        mCredentialRepository.save(mCredentialsClient, result.mCredential).addOnCompleteListener(
+                new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        mInFlight--;
+                        onSaveComplete(result, task);
+                        fill();
+                    }
+                });
+    }
+
+    private void onSaveComplete(Result result, Task<Void> task) {
+        if (task.isSuccessful()) {
+            result.mStatus = Result.SAVED;
+            result.mError = null;
+            mSaved++;
+        } else if (task.getException() instanceof ResolvableApiException) {
+            result.mError = task.getException();
+            mParked.add(result);
+        } else {
+            Log.w(TAG, "Save failed: " + result.mCredential.getId(), task.getException());
+            result.mStatus = Result.FAILED;
+            result.mError = task.getException();
+            mFailed++;
+        }
+        mListener.onImportProgress(mSaved, mFailed, mParked.size());
+    }
+
+    private void onPipelineDrained() {
+        if (mResolving) {
+            return;
+        }
+        if (mParked.isEmpty()) {
+            mListener.onImportComplete(Collections.unmodifiableList(mResults));
+            return;
+        }
+
+        mResolving = true;
+        mListener.onImportResolutionRequired(
+                (ResolvableApiException) mParked.get(0).mError, mParked.size());
+    }
+
+    /**
+     * Reads credentials from lines of {@code id,password}. Blank lines and lines starting with #
+     * are skipped, as are lines without a comma.
+     *
+     * As an Iterator it can't throw IOException, so a read error is thrown from {@link #hasNext()}
+     * wrapped in an IllegalStateException rather than ending the records early. Use
+     * {@link #read()} to get the IOException itself.
+     */
+    public static class CsvRecords implements Iterator<Credential>, Closeable {
+        private final BufferedReader mReader;
+        private Credential mNext;
+
+        public CsvRecords(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Read the next credential.
+         * @return the credential, or null at the end of the input.
+         */
+        @Nullable
+        public Credential read() throws IOException {
+            if (mNext != null) {
+                Credential next = mNext;
+                mNext = null;
+                return next;
+            }
+
+            String line;
+            while ((line = mReader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (line.startsWith("#") || comma <= 0) {
+                    continue;
+                }
+                return new Credential.Builder(line.substring(0, comma).trim())
+                        .setPassword(line.substring(comma + 1))
+                        .build();
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mNext == null) {
+                try {
+                    mNext = read();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read records", e);
+                }
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public Credential next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Credential next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+}
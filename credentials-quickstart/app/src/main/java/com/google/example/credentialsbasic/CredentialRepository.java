@@ -0,0 +1,226 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.credentials.Credential;
+import com.google.android.gms.auth.api.credentials.CredentialRequest;
+import com.google.android.gms.auth.api.credentials.CredentialRequestResponse;
+import com.google.android.gms.auth.api.credentials.CredentialsClient;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide cache of the last credential request, so that starting the activity again, for
+ * example after a rotation or switching back to the app, doesn't go back to Play Services.
+ *
+ * Only requests that completed without needing a resolution are cached, for
+ * {@link #CACHE_TTL_MILLIS}. Saving or deleting a credential through the repository clears the
+ * cache, since the stored credentials may have changed. A request made while an identical one is
+ * still in flight shares its task. All methods are called on the main thread.
+ *
+ * Saves of a credential that the {@link SavedCredentialIndex} says is already stored complete
+ * straight away without calling the Credentials API. The ids of credentials that are saved,
+ * retrieved and deleted are kept up to date in the {@link AccountIdStore}.
+ */
+public class CredentialRepository {
+
+    private static final String TAG = "CredentialRepository";
+
+    static final long CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static CredentialRepository sInstance;
+
+    private String mRequestKey;
+    private Task<CredentialRequestResponse> mResponse;
+    private long mResponseTimeMillis;
+    private SavedCredentialIndex mSavedIndex;
+    private AccountIdStore mAccountIds;
+
+    public static synchronized CredentialRepository getInstance() {
+        if (sInstance == null) {
+            sInstance = new CredentialRepository();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Set the index of saved credentials, called once when the process starts.
+     */
+    public void setSavedCredentialIndex(@Nullable SavedCredentialIndex savedIndex) {
+        mSavedIndex = savedIndex;
+    }
+
+    /**
+     * Set the store of account ids to suggest, called once when the process starts.
+     */
+    public void setAccountIdStore(@Nullable AccountIdStore accountIds) {
+        mAccountIds = accountIds;
+    }
+
+    /**
+     * Build the request for all of the user's saved username/password credentials. We are not
+     * using setAccountTypes so we will not load any credentials from other Identity Providers.
+     * @param idTokenRequested true to request ID tokens along with the credentials.
+     */
+    public static CredentialRequest newCredentialRequest(boolean idTokenRequested) {
+        return new CredentialRequest.Builder()
+                .setPasswordLoginSupported(true)
+                .setIdTokenRequested(idTokenRequested)
+                .build();
+    }
+
+    /**
+     * Request credentials, from the cache if the same request completed recently.
+     * @param forceRefresh always go to Play Services, replacing what is cached.
+     */
+    public Task<CredentialRequestResponse> request(CredentialsClient client,
+                                                  CredentialRequest request,
+                                                  boolean forceRefresh) {
+        final String key = getRequestKey(request);
+        if (!forceRefresh && key.equals(mRequestKey) && isFresh()) {
+            Log.d(TAG, "request: cached");
+            return mResponse;
+        }
+
+        final Task<CredentialRequestResponse> response = client.request(request);
+        mRequestKey = key;
+        mResponse = response;
+        mResponseTimeMillis = SystemClock.elapsedRealtime();
+        response.addOnCompleteListener(new OnCompleteListener<CredentialRequestResponse>() {
+            @Override
+            public void onComplete(@NonNull Task<CredentialRequestResponse> task) {
+                if (response != mResponse) {
+                    // Replaced or invalidated in the meantime
+                    return;
+                }
+                if (task.isSuccessful()) {
+                    // Time the cache from when the response arrived
+                    mResponseTimeMillis = SystemClock.elapsedRealtime();
+                    mResponse = Tasks.forResult(task.getResult());
+                } else {
+                    // Failures and resolutions are never cached
+                    invalidate();
+                }
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Save a credential and clear the cache, unless the same credential is already saved.
+     */
+    public Task<Void> save(CredentialsClient client, final Credential credential) {
+        if (mSavedIndex != null && mSavedIndex.contains(credential)) {
+            Log.d(TAG, "save: unchanged");
+            return Tasks.forResult(null);
+        }
+
+        invalidate();
+        Task<Void> save = client.save(credential);
+        save.addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    onSaved(credential);
+                }
+            }
+        });
+        return save;
+    }
+
+    /**
+     * Record a save that went through after the user confirmed it, and clear the cache.
+     */
+    public void onSaveConfirmed(Credential credential) {
+        invalidate();
+        onSaved(credential);
+    }
+
+    /**
+     * Record a credential read back from the Credentials API, which is known to be saved.
+     */
+    public void onCredentialRetrieved(Credential credential) {
+        onSaved(credential);
+    }
+
+    /**
+     * Delete a credential and clear the cache. The credential is only forgotten once the delete
+     * succeeds, so it is still suggested if the delete fails.
+     */
+    public Task<Void> delete(CredentialsClient client, final Credential credential) {
+        invalidate();
+        Task<Void> delete = client.delete(credential);
+        delete.addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    onDeleted(credential);
+                }
+            }
+        });
+        return delete;
+    }
+
+    /**
+     * Clear the cached request.
+     */
+    public void invalidate() {
+        mRequestKey = null;
+        mResponse = null;
+    }
+
+    private void onSaved(Credential credential) {
+        if (mSavedIndex != null) {
+            mSavedIndex.add(credential);
+        }
+        if (mAccountIds != null) {
+            mAccountIds.add(credential.getId());
+        }
+    }
+
+    private void onDeleted(Credential credential) {
+        if (mSavedIndex != null) {
+            mSavedIndex.remove(credential);
+        }
+        if (mAccountIds != null) {
+            mAccountIds.remove(credential.getId());
+        }
+    }
+
+    private boolean isFresh() {
+        if (mResponse == null) {
+            return false;
+        }
+        // An identical request still in flight is always shared
+        return !mResponse.isComplete()
+                || SystemClock.elapsedRealtime() - mResponseTimeMillis < CACHE_TTL_MILLIS;
+    }
+
+    private static String getRequestKey(CredentialRequest request) {
+        return request.isPasswordLoginSupported()
+                + ":" + request.isIdTokenRequested()
+                + ":" + Arrays.toString(request.getAccountTypes());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import com.google.android.gms.auth.api.credentials.Credentials;
+import com.google.android.gms.auth.api.credentials.CredentialsClient;
+import com.google.android.gms.auth.api.credentials.CredentialsOptions;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.File;
+
+/**
+ * Creates the {@link CredentialsClient} shared by the app's activities once per process, and
+ * starts the auto sign-in credential request as soon as the first activity is created. The
+ * request then runs while that activity is inflated, and MainActivity.onStart picks up the same
+ * task from the {@link CredentialRepository} instead of starting its own. A process started
+ * without UI, for example for MockServer, never makes the request.
+ *
+ * The {@link IdTokenManager} that keeps the signed in credential's ID token fresh lives here too,
+ * as does the {@link CredentialImportManager} so an import outlives the activity that started it.
+ */
+public class CredentialsApplication extends Application {
+
+    // Encrypted list of the account ids suggested in the email field
+    private static final String ACCOUNT_IDS_FILE = "account_ids.enc";
+
+    // Credentials to import, one "id,password" per line, pushed to the app's files directory
+    private static final String IMPORT_FILE = "legacy_credentials.csv";
+
+    // Matches the default state of the "Request ID Token" checkbox
+    private static final boolean PREFETCH_ID_TOKEN = true;
+
+    private CredentialsClient mCredentialsClient;
+    private IdTokenManager mIdTokenManager;
+    private AccountIdStore mAccountIdStore;
+    private CredentialImportManager mImportManager;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // For this demo application we forcibly enable the SmartLock save dialog, which is
+        // sometimes disabled when it would conflict with the Android autofill API.
+        CredentialsOptions options = new CredentialsOptions.Builder()
+                .forceEnableSaveDialog()
+                .build();
+        mCredentialsClient = Credentials.getClient(this, options);
+
+        mIdTokenManager = new IdTokenManager(mCredentialsClient, new JacksonFactory());
+
+        mAccountIdStore = new AccountIdStore(new File(getFilesDir(), ACCOUNT_IDS_FILE));
+
+        mImportManager = new CredentialImportManager(mCredentialsClient,
+                new File(getFilesDir(), IMPORT_FILE));
+
+        CredentialRepository.getInstance().setSavedCredentialIndex(new SavedCredentialIndex(this));
+        CredentialRepository.getInstance().setAccountIdStore(mAccountIdStore);
+
+        registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                // Only needed once, later activities find the response in the repository
+                unregisterActivityLifecycleCallbacks(this);
+                CredentialRepository.getInstance().request(mCredentialsClient,
+                        CredentialRepository.newCredentialRequest(PREFETCH_ID_TOKEN), false);
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    public CredentialsClient getCredentialsClient() {
+        return mCredentialsClient;
+    }
+
+    public IdTokenManager getIdTokenManager() {
+        return mIdTokenManager;
+    }
+
+    public AccountIdStore getAccountIdStore() {
+        return mAccountIdStore;
+    }
+
+    public CredentialImportManager getImportManager() {
+        return mImportManager;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.credentials.CredentialRequestResponse;
+import com.google.android.gms.auth.api.credentials.CredentialsClient;
+import com.google.android.gms.auth.api.credentials.IdToken;
+import com.google.android.gms.common.api.ResolvableApiException;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.api.client.json.JsonFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an ID token for the signed in credential, so that calls to the back end have one
+ * without going back to the Credentials API on the user's path.
+ *
+ * The token is refreshed in the background {@link #REFRESH_MARGIN_MILLIS} before it expires, by
+ * requesting the credential again without showing any UI. That only works while the request can
+ * be answered without the user picking a credential, in which case the token is kept until it
+ * expires and the next interactive sign-in supplies a new one. Failed refreshes are retried with
+ * backoff until the token expires.
+ *
+ * Background refreshes only run between {@link #start()} and {@link #stop()}, which the activity
+ * calls from onStart and onStop, so the app doesn't wake up for a token nothing is going to use.
+ * {@link #getIdToken()} still refreshes an expired token on demand while stopped. All methods
+ * must be called on the main thread.
+ */
+public class IdTokenManager {
+
+    private static final String TAG = "IdTokenManager";
+
+    static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long MIN_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final CredentialsClient mCredentialsClient;
+    private final CredentialRepository mCredentialRepository;
+    private final JsonFactory mJsonFactory;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private String mIdToken;
+    private long mExpirationTimeMillis;
+    private Task<String> mRefresh;
+    private long mRetryMillis = MIN_RETRY_MILLIS;
+    private boolean mStarted = false;
+    // Incremented by clear(), so a refresh that was in flight then doesn't bring the token back
+    private int mGeneration = 0;
+
+    public IdTokenManager(CredentialsClient credentialsClient, JsonFactory jsonFactory) {
+        mCredentialsClient = credentialsClient;
+        mCredentialRepository = CredentialRepository.getInstance();
+        mJsonFactory = jsonFactory;
+    }
+
+    /**
+     * Keep the ID token of a credential that was just retrieved, and schedule its refresh.
+     */
+    public void setIdToken(@NonNull String idToken) {
+        long expirationTimeMillis;
+        try {
+            Long expirationTimeSeconds = com.google.api.client.auth.openidconnect.IdToken
+                    .parse(mJsonFactory, idToken).getPayload().getExpirationTimeSeconds();
+            if (expirationTimeSeconds == null) {
+                Log.w(TAG, "ID token has no expiration time");
+                return;
+            }
+            expirationTimeMillis = TimeUnit.SECONDS.toMillis(expirationTimeSeconds);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not parse ID token", e);
+            return;
+        }
+
+        mIdToken = idToken;
+        mExpirationTimeMillis = expirationTimeMillis;
+        mRetryMillis = MIN_RETRY_MILLIS;
+        scheduleRefresh();
+    }
+
+    /**
+     * Refresh the token in the background until {@link #stop()}.
+     */
+    public void start() {
+        mStarted = true;
+        scheduleRefresh();
+    }
+
+    /**
+     * Stop refreshing the token in the background, for example when no activity is started.
+     */
+    public void stop() {
+        mStarted = false;
+        mHandler.removeCallbacks(mRefreshRunnable);
+    }
+
+    /**
+     * @return the ID token if it hasn't expired, otherwise null.
+     */
+    @Nullable
+    public String getValidIdToken() {
+        if (mIdToken == null || System.currentTimeMillis() >= mExpirationTimeMillis) {
+            return null;
+        }
+        return mIdToken;
+    }
+
+    /**
+     * Get an ID token that hasn't expired, refreshing it first only if it has.
+     */
+    public Task<String> getIdToken() {
+        String idToken = getValidIdToken();
+        if (idToken != null) {
+            return Tasks.forResult(idToken);
+        }
+        return refresh();
+    }
+
+    /**
+     * Forget the token and stop refreshing it, for example after the credential is deleted.
+     */
+    public void clear() {
+        mGeneration++;
+        mRefresh = null;
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mIdToken = null;
+        mExpirationTimeMillis = 0;
+    }
+
+    private void scheduleRefresh() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        if (!mStarted || getValidIdToken() == null) {
+            return;
+        }
+
+        long delayMillis =
+                mExpirationTimeMillis - REFRESH_MARGIN_MILLIS - System.currentTimeMillis();
+        Log.d(TAG, "Refreshing ID token in " + TimeUnit.MILLISECONDS.toSeconds(delayMillis) + "s");
+        mHandler.postDelayed(mRefreshRunnable, Math.max(0, delayMillis));
+    }
+
+    private Task<String> refresh() {
+        // Share a refresh that is already in flight
+        if (mRefresh != null && !mRefresh.isComplete()) {
+            return mRefresh;
+        }
+
+        Log.d(TAG, "Refreshing ID token");
+        final int generation = mGeneration;
+        mRefresh = mCredentialRepository.request(mCredentialsClient,
+                CredentialRepository.newCredentialRequest(true), true)
+                .continueWith(new Continuation<CredentialRequestResponse, String>() {
+                    @Override
+                    public String then(@NonNull Task<CredentialRequestResponse> task)
+                            throws Exception {
+                        if (generation != mGeneration) {
+                            throw new IllegalStateException("ID token was cleared");
+                        }
+                        if (!task.isSuccessful()) {
+                            onRefreshFailed(task.getException());
+                            throw task.getException();
+                        }
+
+                        List<IdToken> idTokens = task.getResult().getCredential().getIdTokens();
+                        if (idTokens.isEmpty()) {
+                            // Not a Google account, so there will never be a token to refresh
+                            clear();
+                            throw new IllegalStateException("Credential has no ID token");
+                        }
+
+                        setIdToken(idTokens.get(0).getIdToken());
+                        return mIdToken;
+                    }
+                });
+        return mRefresh;
+    }
+
+    private void onRefreshFailed(Exception e) {
+        if (e instanceof ResolvableApiException) {
+            // The user would have to pick a credential, which is not done in the background
+            Log.d(TAG, "ID token can't be refreshed without the user");
+            return;
+        }
+
+        if (!mStarted) {
+            // Not retried in the background, the next getIdToken() refreshes it again
+            Log.w(TAG, "ID token refresh failed", e);
+            return;
+        }
+
+        long retryAtMillis = System.currentTimeMillis() + mRetryMillis;
+        if (retryAtMillis >= mExpirationTimeMillis) {
+            Log.w(TAG, "ID token refresh failed", e);
+            return;
+        }
+
+        Log.w(TAG, "ID token refresh failed, retrying in "
+                + TimeUnit.MILLISECONDS.toSeconds(mRetryMillis) + "s", e);
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mHandler.postDelayed(mRefreshRunnable, mRetryMillis);
+        mRetryMillis = Math.min(mRetryMillis * 2, MAX_RETRY_MILLIS);
+    }
+}
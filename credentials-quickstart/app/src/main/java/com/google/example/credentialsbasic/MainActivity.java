@@ -17,13 +17,13 @@ package com.google.example.credentialsbasic;
 
 import android.app.PendingIntent;
 import android.content.Intent;
-import android.content.IntentSender;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.View;
+import android.widget.AutoCompleteTextView;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Toast;
@@ -32,37 +32,45 @@ import com.google.android.gms.auth.api.credentials.Credential;
 import com.google.android.gms.auth.api.credentials.CredentialPickerConfig;
 import com.google.android.gms.auth.api.credentials.CredentialRequest;
 import com.google.android.gms.auth.api.credentials.CredentialRequestResponse;
-import com.google.android.gms.auth.api.credentials.Credentials;
 import com.google.android.gms.auth.api.credentials.CredentialsClient;
-import com.google.android.gms.auth.api.credentials.CredentialsOptions;
 import com.google.android.gms.auth.api.credentials.HintRequest;
 import com.google.android.gms.auth.api.credentials.IdToken;
 import com.google.android.gms.auth.api.credentials.IdentityProviders;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.common.api.ResolvableApiException;
+import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A minimal example of saving and loading username/password credentials from the Credentials API.
  * @author samstern@google.com
  */
 public class MainActivity extends AppCompatActivity implements
-        View.OnClickListener {
+        View.OnClickListener, CredentialImportManager.Callbacks, ResolutionScheduler.Callbacks {
 
     private static final String TAG = MainActivity.class.getSimpleName();
-    private static final String KEY_IS_RESOLVING = "is_resolving";
     private static final int RC_SAVE = 1;
     private static final int RC_HINT = 2;
     private static final int RC_READ = 3;
+    private static final int RC_IMPORT = 4;
 
-    private EditText mEmailField;
+    private AutoCompleteTextView mEmailField;
     private EditText mPasswordField;
 
     private CredentialsClient mCredentialsClient;
+    private CredentialRepository mCredentialRepository;
+    private IdTokenManager mIdTokenManager;
+    private ResolutionScheduler mResolutionScheduler;
+    private CredentialImportManager mImportManager;
     private Credential mCurrentCredential;
-    private boolean mIsResolving = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -75,40 +83,61 @@ public class MainActivity extends AppCompatActivity implements
         mEmailField = findViewById(R.id.edit_text_email);
         mPasswordField = findViewById(R.id.edit_text_password);
 
+        // Suggest account ids used before as they are typed, from memory rather than asking the
+        // Credentials API
+        mEmailField.setAdapter(new AccountIdAdapter(this,
+                ((CredentialsApplication) getApplication()).getAccountIdStore()));
+
         // Buttons
         findViewById(R.id.button_save_credential).setOnClickListener(this);
         findViewById(R.id.button_load_credentials).setOnClickListener(this);
         findViewById(R.id.button_load_hint).setOnClickListener(this);
         findViewById(R.id.button_delete_loaded_credential).setOnClickListener(this);
-
-        // Instance state
-        if (savedInstanceState != null) {
-            mIsResolving = savedInstanceState.getBoolean(KEY_IS_RESOLVING);
-        }
-
-        // Instantiate client for interacting with the credentials API. For this demo
-        // application we forcibly enable the SmartLock save dialog, which is sometimes
-        // disabled when it would conflict with the Android autofill API.
-        CredentialsOptions options = new CredentialsOptions.Builder()
-                .forceEnableSaveDialog()
-                .build();
-        mCredentialsClient = Credentials.getClient(this, options);
+        findViewById(R.id.button_import_credentials).setOnClickListener(this);
+
+        // Client for interacting with the credentials API, created once for the process by
+        // CredentialsApplication which has also already started the auto sign-in request.
+        mCredentialsClient = ((CredentialsApplication) getApplication()).getCredentialsClient();
+        mCredentialRepository = CredentialRepository.getInstance();
+        mIdTokenManager = ((CredentialsApplication) getApplication()).getIdTokenManager();
+        mImportManager = ((CredentialsApplication) getApplication()).getImportManager();
+
+        // Resolutions are queued for the whole process, so they outlive this activity
+        mResolutionScheduler = ResolutionScheduler.getInstance();
+        mResolutionScheduler.onRestoreInstanceState(savedInstanceState);
     }
 
     @Override
     public void onStart() {
         super.onStart();
+        mResolutionScheduler.attach(this, this);
+        mImportManager.attach(this);
+        mIdTokenManager.start();
+
+        // Attempt auto-sign in, this is answered from memory if credentials were requested
+        // recently, for example before a rotation.
+        if (!mResolutionScheduler.isResolving()) {
+            requestCredentials(false);
+        }
 
-        // Attempt auto-sign in.
-        if (!mIsResolving) {
-            requestCredentials();
+        // An import started before a rotation is still running
+        if (mImportManager.isImporting()) {
+            showProgress();
         }
     }
 
+    @Override
+    public void onStop() {
+        super.onStop();
+        mResolutionScheduler.detach(this);
+        mImportManager.detach(this);
+        mIdTokenManager.stop();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putBoolean(KEY_IS_RESOLVING, mIsResolving);
+        mResolutionScheduler.onSaveInstanceState(outState);
     }
 
     @Override
@@ -129,21 +158,43 @@ public class MainActivity extends AppCompatActivity implements
                     Log.e(TAG, "Credential Read: NOT OK");
                     showToast("Credential Read Failed");
                 }
-                
-                mIsResolving = false;
+                break;
+            case RC_IMPORT:
+                mImportManager.onResolutionResult(resultCode == RESULT_OK);
+                if (mImportManager.isImporting()) {
+                    showProgress();
+                }
                 break;
             case RC_SAVE:
                 if (resultCode == RESULT_OK) {
+                    // The save went through after the user confirmed it
+                    // Unknown if the process was killed while the dialog was showing
+                    Credential saved = (Credential) mResolutionScheduler.getPayload(RC_SAVE);
+                    if (saved != null) {
+                        mCredentialRepository.onSaveConfirmed(saved);
+                    }
                     Log.d(TAG, "Credential Save: OK");
                     showToast("Credential Save Success");
                 } else {
                     Log.e(TAG, "Credential Save: NOT OK");
                     showToast("Credential Save Failed");
                 }
-
-                mIsResolving = false;
                 break;
         }
+
+        // Show the next queued resolution, if any
+        mResolutionScheduler.onActivityResult(requestCode);
+    }
+
+    @Override
+    public void onResolutionNotStarted(int requestCode) {
+        if (requestCode == RC_IMPORT) {
+            // Treat it as declined so the import still finishes
+            mImportManager.onResolutionResult(false);
+        } else {
+            showToast("Could not show credentials UI");
+            hideProgress();
+        }
     }
 
     /**
@@ -164,13 +215,13 @@ public class MainActivity extends AppCompatActivity implements
 
         showProgress();
 
-        // NOTE: this method unconditionally saves the Credential built, even if all the fields
-        // are blank or it is invalid in some other way.  In a real application you should contact
-        // your app's back end and determine that the credential is valid before saving it to the
-        // Credentials backend.
+        // NOTE: this method saves the Credential built unless it is unchanged since it was last
+        // saved, even if all the fields are blank or it is invalid in some other way.  In a real
+        // application you should contact your app's back end and determine that the credential
+        // is valid before saving it to the Credentials backend.
         showProgress();
 
-        mCredentialsClient.save(credential).addOnCompleteListener(
+        mCredentialRepository.save(mCredentialsClient, credential).addOnCompleteListener(
                 new OnCompleteListener<Void>() {
                     @Override
                     public void onComplete(@NonNull Task<Void> task) {
@@ -185,7 +236,7 @@ public class MainActivity extends AppCompatActivity implements
                             // The first time a credential is saved, the user is shown UI
                             // to confirm the action. This requires resolution.
                             ResolvableApiException rae = (ResolvableApiException) e;
-                            resolveResult(rae, RC_SAVE);
+                            mResolutionScheduler.enqueue(rae, RC_SAVE, credential);
                         } else {
                             // Save failure cannot be resolved.
                             Log.w(TAG, "Save failed.", e);
@@ -196,6 +247,40 @@ public class MainActivity extends AppCompatActivity implements
                 });
     }
 
+    /**
+     * Called when the Import Credentials button is clicked. Saves every credential in the import
+     * file, for example when moving users over from another password store.
+     */
+    private void importCredentialsClicked() {
+        if (!mImportManager.start(RC_IMPORT)) {
+            showToast("Import already running");
+            return;
+        }
+        showProgress();
+    }
+
+    @Override
+    public void onImportFailed(IOException e) {
+        hideProgress();
+        showToast("Nothing to import, see the README");
+    }
+
+    @Override
+    public void onImportComplete(List<CredentialImporter.Result> results) {
+        hideProgress();
+
+        int saved = 0;
+        for (CredentialImporter.Result result : results) {
+            if (result.getStatus() == CredentialImporter.Result.SAVED) {
+                saved++;
+            } else {
+                Log.w(TAG, "Not imported: " + result.getCredential().getId() + ":"
+                        + result.getStatus());
+            }
+        }
+        showToast("Imported " + saved + " of " + results.size() + " credentials");
+    }
+
     /**
      * Called when the Load Credentials button is clicked. Attempts to read the user's saved
      * Credentials from the Credentials API.  This may show UX, such as a credential picker
@@ -208,7 +293,7 @@ public class MainActivity extends AppCompatActivity implements
      * with the function <code>Auth.CredentialsApi.disableAuthSignIn(...)</code>.
      */
     private void loadCredentialsClicked() {
-        requestCredentials();
+        requestCredentials(true);
     }
 
     /**
@@ -227,31 +312,26 @@ public class MainActivity extends AppCompatActivity implements
                 .setAccountTypes(IdentityProviders.GOOGLE)
                 .build();
 
-;
         PendingIntent intent = mCredentialsClient.getHintPickerIntent(hintRequest);
-        try {
-            startIntentSenderForResult(intent.getIntentSender(), RC_HINT, null, 0, 0, 0);
-            mIsResolving = true;
-        } catch (IntentSender.SendIntentException e) {
-            Log.e(TAG, "Could not start hint picker Intent", e);
-            mIsResolving = false;
-        }
+        mResolutionScheduler.enqueue(intent, RC_HINT);
     }
 
     /**
      * Request Credentials from the Credentials API.
+     * @param forceRefresh true to skip the credentials cached by the CredentialRepository.
      */
-    private void requestCredentials() {
-        // Request all of the user's saved username/password credentials.  We are not using
-        // setAccountTypes so we will not load any credentials from other Identity Providers.
-        CredentialRequest request = new CredentialRequest.Builder()
-                .setPasswordLoginSupported(true)
-                .setIdTokenRequested(shouldRequestIdToken())
-                .build();
-
-        showProgress();
+    private void requestCredentials(boolean forceRefresh) {
+        // Request all of the user's saved username/password credentials.
+        CredentialRequest request =
+                CredentialRepository.newCredentialRequest(shouldRequestIdToken());
+
+        Task<CredentialRequestResponse> response =
+                mCredentialRepository.request(mCredentialsClient, request, forceRefresh);
+        if (!response.isComplete()) {
+            showProgress();
+        }
 
-        mCredentialsClient.request(request).addOnCompleteListener(
+        response.addOnCompleteListener(
                 new OnCompleteListener<CredentialRequestResponse>() {
                     @Override
                     public void onComplete(@NonNull Task<CredentialRequestResponse> task) {
@@ -271,7 +351,7 @@ public class MainActivity extends AppCompatActivity implements
                             // credentials and needs to pick one. This requires showing UI to
                             // resolve the read request.
                             ResolvableApiException rae = (ResolvableApiException) e;
-                            resolveResult(rae, RC_READ);
+                            mResolutionScheduler.enqueue(rae, RC_READ);
                             return;
                         }
 
@@ -300,8 +380,8 @@ public class MainActivity extends AppCompatActivity implements
 
         showProgress();
 
-        mCredentialsClient.delete(mCurrentCredential).addOnCompleteListener(
-                new OnCompleteListener<Void>() {
+        mCredentialRepository.delete(mCredentialsClient, mCurrentCredential)
+                .addOnCompleteListener(new OnCompleteListener<Void>() {
                     @Override
                     public void onComplete(@NonNull Task<Void> task) {
                         hideProgress();
@@ -313,6 +393,7 @@ public class MainActivity extends AppCompatActivity implements
                             ((EditText) findViewById(R.id.edit_text_email)).setText("");
                             ((EditText) findViewById(R.id.edit_text_password)).setText("");
                             mCurrentCredential = null;
+                            mIdTokenManager.clear();
                         } else {
                             // Credential deletion either failed or was cancelled, this operation
                             // never gives a 'resolution' so we can display the failure message
@@ -324,30 +405,6 @@ public class MainActivity extends AppCompatActivity implements
                 });
     }
 
-    /**
-     * Attempt to resolve a non-successful result from an asynchronous request.
-     * @param rae the ResolvableApiException to resolve.
-     * @param requestCode the request code to use when starting an Activity for result,
-     *                    this will be passed back to onActivityResult.
-     */
-    private void resolveResult(ResolvableApiException rae, int requestCode) {
-        // We don't want to fire multiple resolutions at once since that can result
-        // in stacked dialogs after rotation or another similar event.
-        if (mIsResolving) {
-            Log.w(TAG, "resolveResult: already resolving.");
-            return;
-        }
-        
-        Log.d(TAG, "Resolving: " + rae);
-        try {
-            rae.startResolutionForResult(MainActivity.this, requestCode);
-            mIsResolving = true;
-        } catch (IntentSender.SendIntentException e) {
-            Log.e(TAG, "STATUS: Failed to send resolution.", e);
-            hideProgress();
-        }
-    }
-
     /**
      * Process a Credential object retrieved from a successful request.
      * @param credential the Credential to process.
@@ -361,26 +418,50 @@ public class MainActivity extends AppCompatActivity implements
         // If it is a hint, skip this because a hint cannot be deleted.
         if (!isHint) {
             showToast("Credential Retrieved");
+            mCredentialRepository.onCredentialRetrieved(credential);
             mCurrentCredential = credential;
             findViewById(R.id.button_delete_loaded_credential).setEnabled(true);
         } else {
             showToast("Credential Hint Retrieved");
         }
 
-        mEmailField.setText(credential.getId());
+        // Filling in the field shouldn't pop up suggestions
+        mEmailField.setText(credential.getId(), false);
         mPasswordField.setText(credential.getPassword());
 
         if (!credential.getIdTokens().isEmpty()) {
             IdToken idToken = credential.getIdTokens().get(0);
 
-            // For the purposes of this sample we are using a background service in place of a real
-            // web server. The client sends the Id Token to the server which uses the Google
-            // APIs Client Library for Java to verify the token and gain a signed assertion
+            // Keep the token fresh for later calls to the back end, and make this one through
+            // the manager like any other. A hint's token is for an account that has no saved
+            // credential to refresh it from, so it is sent as it is.
+            Task<String> idTokenTask;
+            if (!isHint) {
+                mIdTokenManager.setIdToken(idToken.getIdToken());
+                idTokenTask = mIdTokenManager.getIdToken();
+            } else {
+                idTokenTask = Tasks.forResult(idToken.getIdToken());
+            }
+
+            // For the purposes of this sample we are verifying the token in this process in place
+            // of a real web server. The client sends the Id Token to the server which uses the
+            // Google APIs Client Library for Java to verify the token and gain a signed assertion
             // of the user's email address. This can be used to confirm the user's identity
             // and sign the user in even without providing a password.
-            Intent intent = new Intent(this, MockServer.class)
-                    .putExtra(MockServer.EXTRA_IDTOKEN, idToken.getIdToken());
-            startService(intent);
+            idTokenTask.continueWithTask(new Continuation<String, Task<GoogleIdToken>>() {
+                @Override
+                public Task<GoogleIdToken> then(@NonNull Task<String> task) {
+                    if (!task.isSuccessful()) {
+                        return Tasks.forException(task.getException());
+                    }
+                    return MockServer.submitIdToken(MainActivity.this, task.getResult());
+                }
+            }).addOnCompleteListener(this, new OnCompleteListener<GoogleIdToken>() {
+                @Override
+                public void onComplete(@NonNull Task<GoogleIdToken> task) {
+                    onIdTokenVerified(task);
+                }
+            });
         } else {
             // This state is reached if non-Google accounts are added to Gmail:
             // https://support.google.com/mail/answer/6078445
@@ -388,6 +469,19 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
+    /**
+     * Called with the mock server's verification of a retrieved ID token.
+     */
+    private void onIdTokenVerified(Task<GoogleIdToken> task) {
+        if (task.getException() instanceof RejectedExecutionException) {
+            showToast("Server busy, ID token not verified");
+        } else if (task.isSuccessful() && task.getResult() != null) {
+            showToast("ID token verified for " + task.getResult().getPayload().getEmail());
+        } else {
+            showToast("ID token not verified, see the README");
+        }
+    }
+
     /**
      * Determine if we should request an ID token with Hints/Credentials. The default behavior
      * is to not request an ID token (for speed purposes) but by setting this value to true
@@ -421,7 +515,8 @@ public class MainActivity extends AppCompatActivity implements
 
         // Disable all buttons while progress indicator shows.
         setViewsEnabled(false, R.id.button_load_credentials, R.id.button_load_hint,
-                R.id.button_save_credential, R.id.button_delete_loaded_credential);
+                R.id.button_save_credential, R.id.button_delete_loaded_credential,
+                R.id.button_import_credentials);
     }
 
     /** Hide progress spinner and enable buttons **/
@@ -430,7 +525,7 @@ public class MainActivity extends AppCompatActivity implements
 
         // Enable buttons once progress indicator is hidden.
         setViewsEnabled(true, R.id.button_load_credentials, R.id.button_load_hint,
-                R.id.button_save_credential);
+                R.id.button_save_credential, R.id.button_import_credentials);
     }
 
     /** Enable or disable multiple views **/
@@ -455,6 +550,9 @@ public class MainActivity extends AppCompatActivity implements
             case R.id.button_delete_loaded_credential:
                 deleteLoadedCredentialClicked();
                 break;
+            case R.id.button_import_credentials:
+                importCredentialsClicked();
+                break;
         }
     }
 }
@@ -1,104 +1,264 @@
 package com.google.example.credentialsbasic;
 
-import android.app.IntentService;
+import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.os.IBinder;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.android.gms.auth.api.credentials.IdentityProviders;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
-import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.security.GeneralSecurityException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * <b>Mock</b> server class to demonstrate how to use the Google APIs Client Library for Java
  * to verify an ID token obtained from a Credential.
+ *
+ * Tokens are verified concurrently by a {@link TokenVerifier}. Code in this process hands them
+ * over with {@link #submitIdToken(Context, String)} and gets the result back. Tokens can also be
+ * sent to the service in an Intent, for example with adb, and the service stops once none are
+ * left in flight.
+ *
+ * The verifier is built on a background thread the first time it is needed, since that reads the
+ * audiences file from disk.
  */
-public class MockServer extends IntentService {
+public class MockServer extends Service {
 
     public static final String TAG = "MockServer";
     public static final String EXTRA_IDTOKEN = "id_token";
+    public static final String EXTRA_IDTOKENS = "id_tokens";
 
     private static final String PACKAGE_NAME = "com.google.example.credentialsbasic";
     private static final String SHA512_HASH = "YOUR_SHA512_HASH";
 
+    // Google's certificates are cached here between runs
+    private static final String KEYS_CACHE_FILE = "google_certs.cache";
+    // If this file is pushed to the app's files directory it is used in place of Google's
+    // certificates, for testing offline
+    private static final String LOCAL_KEYS_FILE = "google_certs.json";
+    // If this file is pushed to the app's files directory it lists the audiences tokens are
+    // accepted for, in place of the one for SHA512_HASH and PACKAGE_NAME, see AudienceRegistry
+    private static final String AUDIENCES_FILE = "audiences.txt";
+
     private static final HttpTransport transport = new NetHttpTransport();
     private static final JsonFactory jsonFactory = new JacksonFactory();
 
-    // Verifier that checks that the token has the proper issuer and audience
-    private static GoogleIdTokenVerifier verifier =
-            new GoogleIdTokenVerifier.Builder(transport, jsonFactory)
+    // Verifier that checks that the token has the proper issuer and hasn't expired. The
+    // TokenVerifier checks the audience against an AudienceRegistry, and the signature against
+    // the keys in a PublicKeysCache
+    private static IdTokenVerifier verifier =
+            new IdTokenVerifier.Builder()
                     .setIssuer(IdentityProviders.GOOGLE)
-                    .setAudience(Arrays.asList(getAudienceString(SHA512_HASH, PACKAGE_NAME)))
             .build();
 
-    public MockServer() {
-        super(TAG);
-    }
+    private static TokenVerifier tokenVerifier;
+
+    // Builds the token verifier, and checks its audiences file for changes, off the main thread
+    private static final Executor setupExecutor = Executors.newSingleThreadExecutor();
+
+    private int mInFlight = 0;
+    private int mLastStartId;
 
     /**
-     * Verify an ID token and log the email address and verification status.
-     * @param idTokenString ID Token from a Credential.
+     * Get the process wide token verifier, building it on a background thread if it hasn't been
+     * built yet.
      */
-    private static void verifyIdToken(String idTokenString) {
-        // Print the audience to the logs
-        logTokenAudience(idTokenString);
-
-        try {
-            // Verify ID Token
-            GoogleIdToken idToken = verifier.verify(idTokenString);
-            if (idToken == null) {
-                Log.w(TAG, "ID Token Verification Failed, check the README for instructions.");
-                return;
+    static synchronized Task<TokenVerifier> getTokenVerifierAsync(final Context context) {
+        if (tokenVerifier != null) {
+            return Tasks.forResult(tokenVerifier);
+        }
+        return Tasks.call(setupExecutor, new Callable<TokenVerifier>() {
+            @Override
+            public TokenVerifier call() {
+                return getTokenVerifier(context);
             }
+        });
+    }
 
-            // Extract email address and verification
-            GoogleIdToken.Payload payload = idToken.getPayload();
-            Log.d(TAG, "IdToken:" + payload.toPrettyString());
-            Log.d(TAG, "IdToken:Email:" + payload.getEmail());
-            Log.d(TAG, "IdToken:EmailVerified:" + payload.getEmailVerified());
-        } catch (GeneralSecurityException e) {
-            Log.e(TAG, "verifyIdToken:GeneralSecurityException", e);
-        } catch (IOException e) {
-            Log.e(TAG, "verifyIdToken:IOException", e);
+    /**
+     * Get the process wide token verifier. Builds it on the calling thread if it hasn't been
+     * built yet, see {@link #getTokenVerifierAsync(Context)}.
+     */
+    private static synchronized TokenVerifier getTokenVerifier(Context context) {
+        if (tokenVerifier == null) {
+            File localKeys = new File(context.getFilesDir(), LOCAL_KEYS_FILE);
+            if (localKeys.exists()) {
+                Log.d(TAG, "Using local keys file " + localKeys);
+            } else {
+                localKeys = null;
+            }
+            PublicKeysCache publicKeysCache = new PublicKeysCache(transport, jsonFactory,
+                    new File(context.getCacheDir(), KEYS_CACHE_FILE), localKeys);
+            AudienceRegistry audiences = new AudienceRegistry(
+                    new File(context.getFilesDir(), AUDIENCES_FILE),
+                    Collections.singleton(
+                            AudienceRegistry.getAndroidAudience(SHA512_HASH, PACKAGE_NAME)),
+                    setupExecutor);
+            tokenVerifier = new TokenVerifier(jsonFactory, publicKeysCache, verifier, audiences);
         }
+        return tokenVerifier;
     }
 
     /**
-     * Print the audience of an unverified token string to the logs.
-     * @param idTokenString the ID Token string.
+     * Verify an ID token without going through the service. The token goes straight onto the
+     * verifier's bounded queue, and the result is logged as for tokens sent in an Intent.
+     * @return a task with the verified token, or null if the token is not valid. The task fails
+     *         with RejectedExecutionException if too many tokens are already waiting.
      */
-    public static void logTokenAudience(String idTokenString) {
-        try {
-            GoogleIdToken idToken = GoogleIdToken.parse(jsonFactory, idTokenString);
-            Log.d(TAG, "IDToken Audience:" + idToken.getPayload().getAudience());
-        } catch (IOException e) {
-            Log.e(TAG, "IDToken Audience: Could not parse ID Token", e);
-        }
+    public static Task<GoogleIdToken> submitIdToken(Context context, final String idToken) {
+        final Context appContext = context.getApplicationContext();
+        Task<GoogleIdToken> task = getTokenVerifierAsync(appContext).continueWithTask(
+                new Continuation<TokenVerifier, Task<GoogleIdToken>>() {
+                    @Override
+                    public Task<GoogleIdToken> then(@NonNull Task<TokenVerifier> task) {
+                        if (!task.isSuccessful()) {
+                            return Tasks.forException(task.getException());
+                        }
+                        try {
+                            return task.getResult().verify(idToken);
+                        } catch (RejectedExecutionException e) {
+                            Log.w(TAG, "Too many ID Tokens waiting to be verified", e);
+                            return Tasks.forException(e);
+                        }
+                    }
+                });
+
+        task.addOnCompleteListener(new OnCompleteListener<GoogleIdToken>() {
+            @Override
+            public void onComplete(@NonNull Task<GoogleIdToken> task) {
+                onIdTokenVerified(appContext, task);
+            }
+        });
+        return task;
     }
 
     /**
-     * Determine the audience of the ID token based on the sha512 hash and the package name.
-     * @param sha512Hash sha512 hash of the application, see README for instructions.
-     * @param packageName package name of the application,
+     * Verify ID tokens and log the email address and verification status of each.
+     * @param idTokenStrings ID Tokens from Credentials.
      */
-    private static String getAudienceString(String sha512Hash, String packageName) {
-        String fmtString = "android://%s@%s";
-        return String.format(fmtString, sha512Hash, packageName);
+    private void verifyIdTokens(final List<String> idTokenStrings) {
+        // Counts as in flight until the verifier is built and the tokens are submitted
+        mInFlight++;
+        getTokenVerifierAsync(this).addOnCompleteListener(new OnCompleteListener<TokenVerifier>() {
+            @Override
+            public void onComplete(@NonNull Task<TokenVerifier> task) {
+                if (task.isSuccessful()) {
+                    verifyIdTokens(task.getResult(), idTokenStrings);
+                } else {
+                    Log.e(TAG, "Could not create the token verifier", task.getException());
+                }
+                onVerified();
+            }
+        });
+    }
+
+    private void verifyIdTokens(TokenVerifier tokenVerifier, List<String> idTokenStrings) {
+        List<Task<GoogleIdToken>> tasks;
+        try {
+            tasks = tokenVerifier.verifyAll(idTokenStrings);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Too many ID Tokens waiting to be verified, dropped "
+                    + idTokenStrings.size(), e);
+            return;
+        }
+
+        for (Task<GoogleIdToken> task : tasks) {
+            mInFlight++;
+            task.addOnCompleteListener(new OnCompleteListener<GoogleIdToken>() {
+                @Override
+                public void onComplete(@NonNull Task<GoogleIdToken> task) {
+                    onIdTokenVerified(MockServer.this, task);
+                    onVerified();
+                }
+            });
+        }
+    }
+
+    private void onVerified() {
+        if (--mInFlight == 0) {
+            stopSelf(mLastStartId);
+        }
+    }
+
+    private static void onIdTokenVerified(Context context, Task<GoogleIdToken> task) {
+        if (!task.isSuccessful()) {
+            Log.e(TAG, "verifyIdToken:" + task.getException().getClass().getSimpleName(),
+                    task.getException());
+            return;
+        }
+
+        GoogleIdToken idToken = task.getResult();
+        if (idToken == null) {
+            Log.w(TAG, "ID Token Verification Failed, check the README for instructions.");
+            return;
+        }
+
+        // Extract email address and verification, only formatting what will be logged
+        GoogleIdToken.Payload payload = idToken.getPayload();
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            try {
+                Log.v(TAG, "IdToken:" + payload.toPrettyString());
+            } catch (IOException e) {
+                Log.e(TAG, "verifyIdToken:IOException", e);
+            }
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "IdToken:Email:" + payload.getEmail());
+            Log.d(TAG, "IdToken:EmailVerified:" + payload.getEmailVerified());
+
+            VerifiedTokenCache cache = getTokenVerifier(context).getCache();
+            Log.d(TAG, "VerifiedTokenCache:hits=" + cache.getHitCount()
+                    + ",misses=" + cache.getMissCount());
+        }
     }
 
     @Override
-    protected void onHandleIntent(Intent intent) {
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+
+        List<String> idTokens = new ArrayList<>();
         String idToken = intent.getStringExtra(EXTRA_IDTOKEN);
         if (idToken != null) {
-            Log.d(TAG, "Processing ID Token:" + idToken);
-            verifyIdToken(idToken);
+            idTokens.add(idToken);
+        }
+        String[] batch = intent.getStringArrayExtra(EXTRA_IDTOKENS);
+        if (batch != null) {
+            Collections.addAll(idTokens, batch);
+        }
+
+        if (!idTokens.isEmpty()) {
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Processing ID Tokens:" + idTokens);
+            }
+            verifyIdTokens(idTokens);
+        }
+        if (mInFlight == 0) {
+            stopSelf(startId);
         }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Google's ID token signing keys, kept in a file so that a cold start can verify tokens without
+ * first waiting on an HTTPS fetch.
+ *
+ * Keys are fetched from {@link #GOOGLE_CERTS_URL}, or read from a local keys file in the same
+ * format for offline testing, and stay fresh for the Cache-Control max-age of the response. They
+ * are refreshed in the background shortly before that. When a refresh fails the keys already
+ * cached stay in use, even past their expiry, and the refresh is retried with backoff. Only the
+ * very first fetch, with nothing on disk yet, blocks the caller.
+ *
+ * Keys from a local keys file are never written to the cache file, and the cache file is not read
+ * while a local keys file is in use. Otherwise cached Google keys would hide the local ones, and
+ * local keys would still be trusted after the file is removed.
+ */
+public class PublicKeysCache {
+
+    private static final String TAG = "PublicKeysCache";
+
+    public static final String GOOGLE_CERTS_URL = "https://www.googleapis.com/oauth2/v1/certs";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern MAX_AGE_PATTERN =
+            Pattern.compile("\\s*max-age\\s*=\\s*(\\d+)\\s*");
+
+    // Refresh this long before the keys expire, or a quarter of their lifetime if that is shorter
+    private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // Lifetime of keys read from a local keys file, or fetched without a max-age
+    private static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MIN_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final HttpTransport transport;
+    private final JsonFactory jsonFactory;
+    private final File cacheFile;
+    private final File keysFile;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // Guarded by this
+    private List<PublicKey> publicKeys;
+    private long expirationTimeMillis;
+    private long retryDelayMillis = MIN_RETRY_MILLIS;
+
+    /**
+     * @param cacheFile file the keys fetched from Google are persisted to.
+     * @param keysFile local keys file to read instead of fetching from Google, or null.
+     */
+    public PublicKeysCache(HttpTransport transport, JsonFactory jsonFactory,
+                           @NonNull File cacheFile, @Nullable File keysFile) {
+        this.transport = transport;
+        this.jsonFactory = jsonFactory;
+        this.cacheFile = cacheFile;
+        this.keysFile = keysFile;
+    }
+
+    /**
+     * Get the signing keys, possibly expired if they could not be refreshed.
+     */
+    public synchronized List<PublicKey> getPublicKeys()
+            throws GeneralSecurityException, IOException {
+        if (publicKeys == null) {
+            load();
+        }
+        if (publicKeys == null) {
+            // Nothing cached yet, this one fetch has to block
+            Keys keys = fetch();
+            update(keys);
+            scheduleRefresh(getRefreshDelayMillis(keys.expirationTimeMillis));
+            save(keys);
+        }
+        return publicKeys;
+    }
+
+    /**
+     * @return the time the keys stop being fresh, or 0 if none were loaded yet.
+     */
+    public synchronized long getExpirationTimeMillis() {
+        return expirationTimeMillis;
+    }
+
+    private void load() {
+        if (keysFile != null || !cacheFile.exists()) {
+            return;
+        }
+        try {
+            String contents = readFile(cacheFile);
+            int newline = contents.indexOf('\n');
+            long expiration = Long.parseLong(contents.substring(0, newline));
+            String body = contents.substring(newline + 1);
+            update(new Keys(parseKeys(body), body, expiration));
+            // Keys that went stale while the app wasn't running are refreshed straight away
+            scheduleRefresh(expiration <= System.currentTimeMillis()
+                    ? 0 : getRefreshDelayMillis(expiration));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            Log.w(TAG, "load: discarding unreadable cache", e);
+            cacheFile.delete();
+        }
+    }
+
+    private synchronized void update(Keys keys) {
+        publicKeys = keys.publicKeys;
+        expirationTimeMillis = keys.expirationTimeMillis;
+        retryDelayMillis = MIN_RETRY_MILLIS;
+    }
+
+    /**
+     * Get the delay until keys that were just fetched are refreshed. A short max-age gets a
+     * proportionally short margin, and the delay is never less than {@link #MIN_RETRY_MILLIS},
+     * so keys served with a max-age of a few minutes or none at all aren't fetched in a loop.
+     */
+    private static long getRefreshDelayMillis(long expirationTimeMillis) {
+        long lifetimeMillis = expirationTimeMillis - System.currentTimeMillis();
+        long marginMillis = Math.min(REFRESH_MARGIN_MILLIS, lifetimeMillis / 4);
+        return Math.max(MIN_RETRY_MILLIS, lifetimeMillis - marginMillis);
+    }
+
+    private void scheduleRefresh(long delayMillis) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh() {
+        // Fetch without holding the lock so verification carries on with the current keys
+        Keys keys;
+        try {
+            keys = fetch();
+        } catch (IOException | GeneralSecurityException e) {
+            synchronized (this) {
+                Log.w(TAG, "refresh: failed, retrying in " + retryDelayMillis + "ms", e);
+                scheduleRefresh(retryDelayMillis);
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_MILLIS);
+            }
+            return;
+        }
+        update(keys);
+        scheduleRefresh(getRefreshDelayMillis(keys.expirationTimeMillis));
+        try {
+            save(keys);
+        } catch (IOException e) {
+            Log.w(TAG, "refresh: could not save keys", e);
+        }
+    }
+
+    private Keys fetch() throws IOException, GeneralSecurityException {
+        String body;
+        long maxAgeMillis;
+        if (keysFile != null) {
+            body = readFile(keysFile);
+            maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+        } else {
+            HttpResponse response = transport.createRequestFactory()
+                    .buildGetRequest(new GenericUrl(GOOGLE_CERTS_URL))
+                    .execute();
+            try {
+                body = response.parseAsString();
+                maxAgeMillis = getMaxAgeMillis(response.getHeaders());
+            } finally {
+                response.disconnect();
+            }
+        }
+        Log.d(TAG, "fetch: keys valid for " + maxAgeMillis + "ms");
+        return new Keys(parseKeys(body), body, System.currentTimeMillis() + maxAgeMillis);
+    }
+
+    private synchronized void save(Keys keys) throws IOException {
+        if (keysFile != null) {
+            // Local keys are read from their file again, see the class comment
+            return;
+        }
+
+        // Write a temporary file and rename it so the cache is never left half written
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8);
+        try {
+            writer.write(Long.toString(keys.expirationTimeMillis));
+            writer.write('\n');
+            writer.write(keys.body);
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            throw new IOException("Could not rename " + tmp + " to " + cacheFile);
+        }
+    }
+
+    /**
+     * Parse a JSON object of key id to PEM encoded X.509 certificate.
+     */
+    private List<PublicKey> parseKeys(String body) throws IOException, GeneralSecurityException {
+        GenericJson certs = jsonFactory.fromString(body, GenericJson.class);
+        CertificateFactory factory = SecurityUtils.getX509CertificateFactory();
+        List<PublicKey> keys = new ArrayList<>();
+        for (Object cert : certs.values()) {
+            X509Certificate x509Cert = (X509Certificate) factory.generateCertificate(
+                    new ByteArrayInputStream(StringUtils.getBytesUtf8((String) cert)));
+            keys.add(x509Cert.getPublicKey());
+        }
+        if (keys.isEmpty()) {
+            throw new IOException("No public keys found");
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * Get the max-age of a response, less its age, as GooglePublicKeysManager does.
+     */
+    private static long getMaxAgeMillis(HttpHeaders headers) {
+        String cacheControl = headers.getCacheControl();
+        if (cacheControl == null) {
+            return DEFAULT_MAX_AGE_MILLIS;
+        }
+        for (String directive : cacheControl.split(",")) {
+            Matcher matcher = MAX_AGE_PATTERN.matcher(directive);
+            if (matcher.matches()) {
+                long maxAgeSeconds = Long.parseLong(matcher.group(1));
+                if (headers.getAge() != null) {
+                    maxAgeSeconds -= headers.getAge();
+                }
+                return TimeUnit.SECONDS.toMillis(Math.max(0, maxAgeSeconds));
+            }
+        }
+        return DEFAULT_MAX_AGE_MILLIS;
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                contents.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return contents.toString();
+    }
+
+    private static class Keys {
+        final List<PublicKey> publicKeys;
+        final String body;
+        final long expirationTimeMillis;
+
+        Keys(List<PublicKey> publicKeys, String body, long expirationTimeMillis) {
+            this.publicKeys = publicKeys;
+            this.body = body;
+            this.expirationTimeMillis = expirationTimeMillis;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.auth.api.credentials.Credential;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which credentials have already been saved to the Credentials API, so that saving an
+ * unchanged credential again, which is a round trip to Play Services and may show the save
+ * dialog, can be skipped.
+ *
+ * Nothing readable is stored. Each credential is recorded as a salted SHA-256 fingerprint of its
+ * id, account type and a digest of its password, under a salted fingerprint of just its id and
+ * account type, so a changed password replaces the old entry. The salt is random per install.
+ * Entries expire after {@link #MAX_AGE_MILLIS}, in case the credential was removed outside the
+ * app, for example from the Smart Lock settings.
+ *
+ * The preferences are only opened the first time the index is used, so creating it at startup
+ * doesn't read from disk on the main thread.
+ */
+public class SavedCredentialIndex {
+
+    public static final String PREFS_NAME = "saved_credentials";
+
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private static final String KEY_SALT = "salt";
+    private static final int SALT_LENGTH = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Context mContext;
+
+    // Opened on first use, guarded by this
+    private SharedPreferences mPrefs;
+    private byte[] mSalt;
+
+    public SavedCredentialIndex(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * @return true if the same id, account type and password were saved recently.
+     */
+    public boolean contains(@NonNull Credential credential) {
+        String entry = getPrefs().getString(getKey(credential), null);
+        if (entry == null) {
+            return false;
+        }
+
+        int comma = entry.indexOf(',');
+        if (comma < 0 || !entry.substring(0, comma).equals(getFingerprint(credential))) {
+            return false;
+        }
+        try {
+            long savedMillis = Long.parseLong(entry.substring(comma + 1));
+            return System.currentTimeMillis() - savedMillis < MAX_AGE_MILLIS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record a credential that was saved, or that was read back from the Credentials API.
+     */
+    public void add(@NonNull Credential credential) {
+        getPrefs().edit()
+                .putString(getKey(credential),
+                        getFingerprint(credential) + "," + System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Forget a credential, whatever its password, after it is deleted.
+     */
+    public void remove(@NonNull Credential credential) {
+        getPrefs().edit().remove(getKey(credential)).apply();
+    }
+
+    private synchronized SharedPreferences getPrefs() {
+        if (mPrefs == null) {
+            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME,
+                    Context.MODE_PRIVATE);
+            String salt = prefs.getString(KEY_SALT, null);
+            if (salt == null) {
+                byte[] bytes = new byte[SALT_LENGTH];
+                new SecureRandom().nextBytes(bytes);
+                salt = toHex(bytes);
+                prefs.edit().putString(KEY_SALT, salt).apply();
+            }
+            mSalt = salt.getBytes(UTF_8);
+            mPrefs = prefs;
+        }
+        return mPrefs;
+    }
+
+    private String getKey(Credential credential) {
+        MessageDigest digest = newDigest();
+        digest.update(mSalt);
+        updateAccount(digest, credential);
+        return toHex(digest.digest());
+    }
+
+    private String getFingerprint(Credential credential) {
+        // Only a digest of the password goes into the fingerprint
+        byte[] password = new byte[0];
+        if (credential.getPassword() != null) {
+            password = newDigest().digest(credential.getPassword().getBytes(UTF_8));
+        }
+
+        MessageDigest digest = newDigest();
+        digest.update(mSalt);
+        updateAccount(digest, credential);
+        digest.update((byte) 0);
+        digest.update(password);
+        return toHex(digest.digest());
+    }
+
+    private static void updateAccount(MessageDigest digest, Credential credential) {
+        digest.update(credential.getId().getBytes(UTF_8));
+        digest.update((byte) 0);
+        if (credential.getAccountType() != null) {
+            digest.update(credential.getAccountType().getBytes(UTF_8));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.json.JsonFactory;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies ID tokens on a bounded pool of worker threads.
+ *
+ * Up to {@link #POOL_SIZE} tokens are verified at once and up to {@link #QUEUE_CAPACITY} more
+ * wait for a worker. Past that, submitting a token throws {@link RejectedExecutionException} so
+ * the caller knows to back off rather than queueing without limit. A batch takes at most
+ * {@link #POOL_SIZE} places in the pool, however many tokens it has, and its workers verify the
+ * batch's tokens one after another until none are left.
+ *
+ * Each token is decoded once, and the parsed token is used for every check: the cheap issuer,
+ * expiry and audience checks first, then the signature. Audiences are looked up in an
+ * {@link AudienceRegistry}, so one verifier serves every registered client app. Tokens that pass
+ * are kept in a {@link VerifiedTokenCache}, and verifying one of those again completes straight
+ * away without using the pool.
+ */
+public class TokenVerifier {
+
+    private static final String TAG = "TokenVerifier";
+
+    static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    static final int QUEUE_CAPACITY = 32;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int CACHE_SIZE = 256;
+
+    private final JsonFactory jsonFactory;
+    private final PublicKeysCache publicKeysCache;
+    private final IdTokenVerifier verifier;
+    private final AudienceRegistry audiences;
+    private final ThreadPoolExecutor executor;
+    private final VerifiedTokenCache cache;
+
+    /**
+     * @param verifier checks the issuer and expiry of tokens.
+     * @param audiences the audiences tokens are accepted for.
+     * @param publicKeysCache keys the token signatures are checked against.
+     */
+    public TokenVerifier(JsonFactory jsonFactory, PublicKeysCache publicKeysCache,
+                         IdTokenVerifier verifier, AudienceRegistry audiences) {
+        this.jsonFactory = jsonFactory;
+        this.publicKeysCache = publicKeysCache;
+        this.verifier = verifier;
+        this.audiences = audiences;
+
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY));
+        executor.allowCoreThreadTimeOut(true);
+
+        cache = new VerifiedTokenCache(CACHE_SIZE, verifier.getAcceptableTimeSkewSeconds());
+    }
+
+    public VerifiedTokenCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Verify a token on the worker pool.
+     * @return a task resolving to the verified token, or to null if the token is not valid.
+     * @throws RejectedExecutionException if too many tokens are already waiting.
+     */
+    public Task<GoogleIdToken> verify(final String idTokenString) {
+        GoogleIdToken cached = getCached(idTokenString);
+        if (cached != null) {
+            return Tasks.forResult(cached);
+        }
+        return Tasks.call(executor, new Callable<GoogleIdToken>() {
+            @Override
+            public GoogleIdToken call() throws Exception {
+                return verify(idTokenString, publicKeysCache.getPublicKeys());
+            }
+        });
+    }
+
+    /**
+     * Verify a batch of tokens on the worker pool, all against the same keys. The keys are
+     * looked up once for the whole batch.
+     *
+     * However large the batch, it takes at most {@link #POOL_SIZE} places in the pool. Each of
+     * its workers verifies the batch's tokens one after another until none are left, so the rest
+     * of the batch waits in the batch rather than in the pool's queue.
+     * @return a task per token, in the same order, as for {@link #verify(String)}.
+     * @throws RejectedExecutionException if the pool has no room for any of the batch's workers.
+     */
+    public List<Task<GoogleIdToken>> verifyAll(List<String> idTokenStrings) {
+        List<Task<GoogleIdToken>> tasks = new ArrayList<>(idTokenStrings.size());
+        Batch batch = new Batch();
+        for (String idTokenString : idTokenStrings) {
+            GoogleIdToken cached = getCached(idTokenString);
+            if (cached != null) {
+                tasks.add(Tasks.forResult(cached));
+            } else {
+                tasks.add(batch.add(idTokenString));
+            }
+        }
+        batch.start();
+        return tasks;
+    }
+
+    @Nullable
+    private GoogleIdToken verify(String idTokenString, List<PublicKey> publicKeys)
+            throws GeneralSecurityException, IOException {
+        GoogleIdToken idToken = GoogleIdToken.parse(jsonFactory, idTokenString);
+        if (Log.isLoggable(TAG, Log.INFO)) {
+            // Print the audience to the logs, see the README for how it's used
+            Log.i(TAG, "IDToken Audience:" + idToken.getPayload().getAudience());
+        }
+
+        if (!verifier.verify(idToken) || !isRegisteredAudience(idToken)
+                || !verifySignature(idToken, publicKeys)) {
+            return null;
+        }
+        cache.put(idTokenString, idToken);
+        return idToken;
+    }
+
+    /**
+     * Get a token from the cache, if it's still for a registered audience.
+     */
+    @Nullable
+    private GoogleIdToken getCached(String idTokenString) {
+        GoogleIdToken cached = cache.get(idTokenString);
+        if (cached != null && isRegisteredAudience(cached)) {
+            return cached;
+        }
+        return null;
+    }
+
+    private boolean isRegisteredAudience(GoogleIdToken idToken) {
+        return audiences.containsAll(idToken.getPayload().getAudienceAsList());
+    }
+
+    /**
+     * Check that the token was signed by one of the keys.
+     */
+    private static boolean verifySignature(GoogleIdToken idToken, List<PublicKey> publicKeys)
+            throws GeneralSecurityException {
+        for (PublicKey publicKey : publicKeys) {
+            if (idToken.verifySignature(publicKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The keys for a batch, looked up by whichever of its workers needs them first.
+     */
+    private class KeySnapshot {
+        private List<PublicKey> publicKeys;
+
+        synchronized List<PublicKey> get() throws GeneralSecurityException, IOException {
+            if (publicKeys == null) {
+                publicKeys = publicKeysCache.getPublicKeys();
+            }
+            return publicKeys;
+        }
+    }
+
+    /**
+     * Tokens of a batch waiting to be verified, and the workers that verify them.
+     */
+    private class Batch implements Runnable {
+        private final KeySnapshot keys = new KeySnapshot();
+        private final Queue<Pending> pending = new ArrayDeque<>();
+
+        Task<GoogleIdToken> add(String idTokenString) {
+            Pending next = new Pending(idTokenString);
+            pending.add(next);
+            return next.source.getTask();
+        }
+
+        void start() {
+            int workers = Math.min(POOL_SIZE, pending.size());
+            for (int i = 0; i < workers; i++) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    if (i > 0) {
+                        // The workers already queued verify the rest of the batch
+                        return;
+                    }
+                    // Nothing will verify the batch, complete its tasks before giving up
+                    Pending next;
+                    while ((next = poll()) != null) {
+                        next.source.setException(e);
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Pending next;
+            while ((next = poll()) != null) {
+                try {
+                    next.source.setResult(verify(next.idTokenString, keys.get()));
+                } catch (Exception e) {
+                    next.source.setException(e);
+                }
+            }
+        }
+
+        @Nullable
+        private synchronized Pending poll() {
+            return pending.poll();
+        }
+    }
+
+    private static class Pending {
+        final String idTokenString;
+        final TaskCompletionSource<GoogleIdToken> source = new TaskCompletionSource<>();
+
+        Pending(String idTokenString) {
+            this.idTokenString = idTokenString;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialsbasic;
+
+import android.support.annotation.Nullable;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of tokens that passed verification, so verifying the same token again is a
+ * lookup instead of an RSA signature check.
+ *
+ * Entries are keyed by the SHA-256 of the token string and kept until the token's expiry less
+ * the clock skew, after which the token has to be verified again.
+ */
+public class VerifiedTokenCache {
+
+    private static final String HASH_TYPE = "SHA-256";
+
+    private final int maxSize;
+    private final long skewMillis;
+    private final Map<ByteBuffer, Entry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maxSize number of tokens to keep, the least recently used are dropped beyond this.
+     * @param skewSeconds how long before its expiry a token stops being served from the cache.
+     */
+    public VerifiedTokenCache(final int maxSize, long skewSeconds) {
+        this.maxSize = maxSize;
+        this.skewMillis = TimeUnit.SECONDS.toMillis(skewSeconds);
+        // Access ordered, so the eldest entry is the least recently used
+        entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the verified token, or null if it isn't cached or is about to expire.
+     */
+    @Nullable
+    public GoogleIdToken get(String idTokenString) {
+        ByteBuffer key = digest(idTokenString);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() < entry.expirationTimeMillis) {
+                hitCount.incrementAndGet();
+                return entry.idToken;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache a token that passed verification.
+     */
+    public void put(String idTokenString, GoogleIdToken idToken) {
+        Long expirationSeconds = idToken.getPayload().getExpirationTimeSeconds();
+        if (expirationSeconds == null) {
+            return;
+        }
+        long expirationTimeMillis = TimeUnit.SECONDS.toMillis(expirationSeconds) - skewMillis;
+        if (expirationTimeMillis <= System.currentTimeMillis()) {
+            return;
+        }
+
+        ByteBuffer key = digest(idTokenString);
+        synchronized (this) {
+            entries.put(key, new Entry(idToken, expirationTimeMillis));
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private static ByteBuffer digest(String idTokenString) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_TYPE);
+            return ByteBuffer.wrap(digest.digest(StringUtils.getBytesUtf8(idTokenString)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        final GoogleIdToken idToken;
+        final long expirationTimeMillis;
+
+        Entry(GoogleIdToken idToken, long expirationTimeMillis) {
+            this.idToken = idToken;
+            this.expirationTimeMillis = expirationTimeMillis;
+        }
+    }
+}
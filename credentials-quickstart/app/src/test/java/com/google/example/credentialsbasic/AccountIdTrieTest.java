@@ -0,0 +1,68 @@
+package com.google.example.credentialsbasic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AccountIdTrie}.
+ */
+public class AccountIdTrieTest {
+    private AccountIdTrie trie;
+
+    @Before
+    public void setUp() {
+        trie = new AccountIdTrie();
+        trie.add("bob@example.com");
+        trie.add("Alice@example.com");
+        trie.add("alice.smith@example.org");
+        trie.add("al@example.net");
+    }
+
+    @Test
+    public void complete_returnsMatchesInOrder() {
+        assertEquals(
+                Arrays.asList("al@example.net", "alice.smith@example.org", "Alice@example.com"),
+                trie.complete("AL", 10));
+        assertEquals(Collections.singletonList("al@example.net"), trie.complete("al", 1));
+        assertEquals(Collections.emptyList(), trie.complete("carol", 10));
+        assertEquals(4, trie.complete("", 10).size());
+    }
+
+    @Test
+    public void add_ignoresCase() {
+        assertFalse(trie.add("BOB@example.com"));
+        assertEquals(4, trie.size());
+        assertEquals(Collections.singletonList("BOB@example.com"), trie.complete("b", 10));
+    }
+
+    @Test
+    public void complete_manyIds() {
+        for (int i = 0; i < 10000; i++) {
+            trie.add(String.format("user%05d@example.com", i));
+        }
+
+        assertEquals(10004, trie.size());
+        assertEquals(
+                Arrays.asList("user04200@example.com", "user04201@example.com",
+                        "user04202@example.com"),
+                trie.complete("USER042", 3));
+        assertEquals(10, trie.complete("user0420", 20).size());
+        assertEquals(Collections.singletonList("user09999@example.com"),
+                trie.complete("user09999", 10));
+        assertEquals(Collections.singletonList("bob@example.com"), trie.complete("b", 10));
+    }
+
+    @Test
+    public void remove_keepsOtherIds() {
+        assertTrue(trie.remove("alice@EXAMPLE.com"));
+        assertFalse(trie.remove("alice@example.com"));
+        assertFalse(trie.remove("ali"));
+        assertEquals(Arrays.asList("alice.smith@example.org"), trie.complete("alic", 10));
+        assertEquals(3, trie.size());
+    }
+}
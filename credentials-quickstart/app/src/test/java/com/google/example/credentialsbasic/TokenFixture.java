@@ -0,0 +1,211 @@
+package com.google.example.credentialsbasic;
+
+import com.google.android.gms.auth.api.credentials.IdentityProviders;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.util.Base64;
+import com.google.api.client.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for Google's token issuer in local tests. Generates an RSA key pair and a self-signed
+ * certificate for it, writes a keys file for {@link PublicKeysCache}, and mints ID tokens signed
+ * with the key.
+ */
+public class TokenFixture {
+    public static final String KEY_ID = "test-key";
+    public static final String AUDIENCE =
+            AudienceRegistry.getAndroidAudience("TEST_SHA512_HASH", "com.example.test");
+
+    // Object identifiers for the certificate's signature algorithm and subject name
+    private static final byte[] SHA256_WITH_RSA_OID =
+            {0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x0b};
+    private static final byte[] COMMON_NAME_OID = {0x55, 0x04, 0x03};
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private final JsonFactory jsonFactory;
+    private final KeyPair keyPair;
+    private final String certificatePem;
+    private final AtomicLong serial = new AtomicLong();
+
+    public TokenFixture(JsonFactory jsonFactory) throws GeneralSecurityException {
+        this.jsonFactory = jsonFactory;
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        certificatePem = toPem(selfSignedCertificate());
+    }
+
+    /**
+     * Write the certificate in the format of Google's certs endpoint, for use as a local keys
+     * file.
+     */
+    public void writeKeysFile(File file) throws IOException {
+        String json = jsonFactory.toString(Collections.singletonMap(KEY_ID, certificatePem));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(StringUtils.getBytesUtf8(json));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return a token for {@link #AUDIENCE} that expires in an hour.
+     */
+    public String valid() throws GeneralSecurityException, IOException {
+        return mint(AUDIENCE, TimeUnit.HOURS.toSeconds(1));
+    }
+
+    /**
+     * @return a token that expired an hour ago, well beyond the verifier's clock skew.
+     */
+    public String expired() throws GeneralSecurityException, IOException {
+        return mint(AUDIENCE, -TimeUnit.HOURS.toSeconds(1));
+    }
+
+    public String wrongAudience() throws GeneralSecurityException, IOException {
+        return mint(AudienceRegistry.getAndroidAudience("OTHER_HASH", "com.example.other"),
+                TimeUnit.HOURS.toSeconds(1));
+    }
+
+    /**
+     * Mint a token with Google's issuer. Every token has a distinct subject so none are equal.
+     * @param expiresInSeconds seconds from now until the token expires, may be negative.
+     */
+    public String mint(String audience, long expiresInSeconds)
+            throws GeneralSecurityException, IOException {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        long id = serial.incrementAndGet();
+
+        JsonWebSignature.Header header = new JsonWebSignature.Header()
+                .setAlgorithm("RS256")
+                .setKeyId(KEY_ID);
+        GoogleIdToken.Payload payload = new GoogleIdToken.Payload()
+                .setEmail("user" + id + "@example.com")
+                .setEmailVerified(true);
+        payload.setIssuer(IdentityProviders.GOOGLE)
+                .setAudience(audience)
+                .setSubject(Long.toString(id))
+                .setIssuedAtTimeSeconds(Math.min(now, now + expiresInSeconds) - 60)
+                .setExpirationTimeSeconds(now + expiresInSeconds);
+        return JsonWebSignature.signUsingRsaSha256(keyPair.getPrivate(), jsonFactory, header,
+                payload);
+    }
+
+    /**
+     * Wait for a task. Tasks.await can't be used in local tests, it needs a main Looper to tell
+     * that it isn't called on the main thread.
+     */
+    public static <T> T await(Task<T> task) throws InterruptedException, ExecutionException {
+        final CountDownLatch done = new CountDownLatch(1);
+        task.addOnCompleteListener(DIRECT, new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(Task<T> task) {
+                done.countDown();
+            }
+        });
+        done.await();
+        if (!task.isSuccessful()) {
+            throw new ExecutionException(task.getException());
+        }
+        return task.getResult();
+    }
+
+    /**
+     * Build a minimal self-signed X.509 certificate for the key pair, DER encoded.
+     */
+    private byte[] selfSignedCertificate() throws GeneralSecurityException {
+        byte[] algorithm = der(0x30, der(0x06, SHA256_WITH_RSA_OID), der(0x05));
+        byte[] name = der(0x30, der(0x31, der(0x30,
+                der(0x06, COMMON_NAME_OID), der(0x0c, StringUtils.getBytesUtf8("test")))));
+        long now = System.currentTimeMillis();
+        byte[] validity = der(0x30,
+                utcTime(now - TimeUnit.DAYS.toMillis(1)),
+                utcTime(now + TimeUnit.DAYS.toMillis(30)));
+
+        byte[] tbsCertificate = der(0x30,
+                der(0xa0, der(0x02, new byte[] {2})), // v3
+                der(0x02, BigInteger.valueOf(now).toByteArray()),
+                algorithm,
+                name,
+                validity,
+                name,
+                keyPair.getPublic().getEncoded());
+
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(tbsCertificate);
+        byte[] signature = signer.sign();
+
+        // The signature is a bit string with no unused bits
+        byte[] bits = new byte[signature.length + 1];
+        System.arraycopy(signature, 0, bits, 1, signature.length);
+        return der(0x30, tbsCertificate, algorithm, der(0x03, bits));
+    }
+
+    private static byte[] utcTime(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return der(0x17, StringUtils.getBytesUtf8(format.format(new Date(millis))));
+    }
+
+    /**
+     * DER encode a tag with the concatenation of the contents.
+     */
+    private static byte[] der(int tag, byte[]... contents) {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        for (byte[] content : contents) {
+            value.write(content, 0, content.length);
+        }
+        int length = value.size();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            byte[] lengthBytes = BigInteger.valueOf(length).toByteArray();
+            int offset = lengthBytes[0] == 0 ? 1 : 0;
+            out.write(0x80 | (lengthBytes.length - offset));
+            out.write(lengthBytes, offset, lengthBytes.length - offset);
+        }
+        out.write(value.toByteArray(), 0, length);
+        return out.toByteArray();
+    }
+
+    private static String toPem(byte[] der) {
+        return "-----BEGIN CERTIFICATE-----\n"
+                + Base64.encodeBase64String(der)
+                + "\n-----END CERTIFICATE-----\n";
+    }
+}
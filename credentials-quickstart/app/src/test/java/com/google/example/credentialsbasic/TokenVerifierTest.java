@@ -0,0 +1,106 @@
+package com.google.example.credentialsbasic;
+
+import com.google.android.gms.auth.api.credentials.IdentityProviders;
+import com.google.android.gms.tasks.Task;
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TokenVerifier}, with tokens minted by a {@link TokenFixture}.
+ */
+public class TokenVerifierTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final JsonFactory jsonFactory = new JacksonFactory();
+    private TokenFixture fixture;
+    private TokenVerifier tokenVerifier;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new TokenFixture(jsonFactory);
+        tokenVerifier = newTokenVerifier(tmp.getRoot(), fixture);
+    }
+
+    /**
+     * Build a verifier for the fixture's tokens, with the fixture's certificate as its keys.
+     */
+    static TokenVerifier newTokenVerifier(File dir, TokenFixture fixture) throws Exception {
+        JsonFactory jsonFactory = new JacksonFactory();
+        File keysFile = new File(dir, "google_certs.json");
+        fixture.writeKeysFile(keysFile);
+        PublicKeysCache publicKeysCache = new PublicKeysCache(new NetHttpTransport(),
+                jsonFactory, new File(dir, "google_certs.cache"), keysFile);
+        IdTokenVerifier verifier = new IdTokenVerifier.Builder()
+                .setIssuer(IdentityProviders.GOOGLE)
+                .build();
+        AudienceRegistry audiences = new AudienceRegistry(null,
+                Collections.singleton(TokenFixture.AUDIENCE), Executors.newSingleThreadExecutor());
+        return new TokenVerifier(jsonFactory, publicKeysCache, verifier, audiences);
+    }
+
+    @Test
+    public void validToken_isVerified() throws Exception {
+        GoogleIdToken idToken = TokenFixture.await(tokenVerifier.verify(fixture.valid()));
+        assertNotNull(idToken);
+        assertTrue(idToken.getPayload().getEmail().endsWith("@example.com"));
+    }
+
+    @Test
+    public void invalidTokens_areRejected() throws Exception {
+        assertNull(TokenFixture.await(tokenVerifier.verify(fixture.expired())));
+        assertNull(TokenFixture.await(tokenVerifier.verify(fixture.wrongAudience())));
+
+        // Signed by a different key
+        TokenFixture other = new TokenFixture(jsonFactory);
+        assertNull(TokenFixture.await(tokenVerifier.verify(other.valid())));
+    }
+
+    @Test
+    public void batch_keepsOrder() throws Exception {
+        List<String> tokens = Arrays.asList(fixture.valid(), fixture.expired(), fixture.valid());
+        List<GoogleIdToken> results = new ArrayList<>();
+        for (Task<GoogleIdToken> task : tokenVerifier.verifyAll(tokens)) {
+            results.add(TokenFixture.await(task));
+        }
+        assertNotNull(results.get(0));
+        assertNull(results.get(1));
+        assertNotNull(results.get(2));
+    }
+
+    @Test
+    public void batchLargerThanQueue_isVerified() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < (TokenVerifier.POOL_SIZE + TokenVerifier.QUEUE_CAPACITY) * 2; i++) {
+            tokens.add(fixture.valid());
+        }
+        for (Task<GoogleIdToken> task : tokenVerifier.verifyAll(tokens)) {
+            assertNotNull(TokenFixture.await(task));
+        }
+    }
+
+    @Test
+    public void repeatVerification_isCached() throws Exception {
+        String token = fixture.valid();
+        TokenFixture.await(tokenVerifier.verify(token));
+        assertTrue(tokenVerifier.verify(token).isComplete());
+        assertEquals(1, tokenVerifier.getCache().getHitCount());
+    }
+}
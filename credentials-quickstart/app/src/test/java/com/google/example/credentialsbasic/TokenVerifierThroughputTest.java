@@ -0,0 +1,109 @@
+package com.google.example.credentialsbasic;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load test for {@link TokenVerifier}: client threads each verify one token at a time, as
+ * MockServer would see a burst of sign-ins, and the throughput and latency are printed.
+ *
+ * Every token is distinct, so each one goes through the full signature check rather than the
+ * verified token cache. Only runs when the loadTests system property is true, e.g.
+ * {@code ./gradlew test -PloadTests}.
+ */
+public class TokenVerifierThroughputTest {
+    private static final int WARM_UP_TOKENS = 400;
+    private static final int TOKENS = 2000;
+    // Each client has one token in flight, so up to POOL_SIZE + QUEUE_CAPACITY clients never
+    // overflow the queue. Twice the pool is enough to keep every worker busy.
+    private static final int CLIENTS = Math.min(TokenVerifier.POOL_SIZE * 2,
+            TokenVerifier.POOL_SIZE + TokenVerifier.QUEUE_CAPACITY);
+    // Generous, a worker verifies a token in well under a millisecond
+    private static final double MAX_P99_LATENCY_MILLIS = 500;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void throughput() throws Exception {
+        Assume.assumeTrue("Load tests not enabled", Boolean.getBoolean("loadTests"));
+        TokenFixture fixture = new TokenFixture(new JacksonFactory());
+        TokenVerifier tokenVerifier = TokenVerifierTest.newTokenVerifier(tmp.getRoot(), fixture);
+
+        List<String> tokens = new ArrayList<>(WARM_UP_TOKENS + TOKENS);
+        for (int i = 0; i < WARM_UP_TOKENS + TOKENS; i++) {
+            tokens.add(fixture.valid());
+        }
+
+        run(tokenVerifier, tokens.subList(0, WARM_UP_TOKENS));
+        long start = System.nanoTime();
+        long[] latencies = run(tokenVerifier, tokens.subList(WARM_UP_TOKENS, tokens.size()));
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        String stats = String.format(
+                "TokenVerifier: %d clients, %d workers, %.0f tokens/s, "
+                        + "latency p50 %.2fms p90 %.2fms p99 %.2fms max %.2fms",
+                CLIENTS, TokenVerifier.POOL_SIZE, TOKENS / (elapsed / 1e9),
+                percentile(latencies, 50), percentile(latencies, 90),
+                percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+        System.out.println(stats);
+        assertEquals(stats, 0, tokenVerifier.getCache().getHitCount());
+        assertTrue(stats, percentile(latencies, 99) < MAX_P99_LATENCY_MILLIS);
+    }
+
+    /**
+     * Verify the tokens from {@link #CLIENTS} threads.
+     * @return the latency of each verification in nanoseconds.
+     */
+    private static long[] run(final TokenVerifier tokenVerifier, final List<String> tokens)
+            throws Exception {
+        final long[] latencies = new long[tokens.size()];
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                results.add(clients.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        int i;
+                        while ((i = next.getAndIncrement()) < tokens.size()) {
+                            long start = System.nanoTime();
+                            assertNotNull(TokenFixture.await(tokenVerifier.verify(tokens.get(i))));
+                            latencies[i] = System.nanoTime() - start;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            clients.shutdown();
+            clients.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        return sorted[(sorted.length - 1) * percentile / 100] / 1e6;
+    }
+}
@@ -17,7 +17,6 @@ package com.google.example.credentialssignin;
 
 import android.app.ProgressDialog;
 import android.content.Intent;
-import android.content.IntentSender;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
@@ -30,48 +29,57 @@ import android.widget.Toast;
 import com.google.android.gms.auth.api.credentials.Credential;
 import com.google.android.gms.auth.api.credentials.CredentialRequest;
 import com.google.android.gms.auth.api.credentials.CredentialRequestResponse;
-import com.google.android.gms.auth.api.credentials.Credentials;
 import com.google.android.gms.auth.api.credentials.CredentialsClient;
 import com.google.android.gms.auth.api.credentials.IdentityProviders;
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
 import com.google.android.gms.auth.api.signin.GoogleSignInClient;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.common.SignInButton;
 import com.google.android.gms.common.api.ResolvableApiException;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 
 public class MainActivity extends AppCompatActivity implements
-        View.OnClickListener {
+        View.OnClickListener, ResolutionScheduler.Callbacks {
 
     private static final String TAG = "MainActivity";
-    private static final String KEY_IS_RESOLVING = "is_resolving";
     private static final String KEY_CREDENTIAL = "key_credential";
-    private static final String KEY_CREDENTIAL_TO_SAVE = "key_credential_to_save";
 
     private static final int RC_SIGN_IN = 1;
     private static final int RC_CREDENTIALS_READ = 2;
     private static final int RC_CREDENTIALS_SAVE = 3;
 
+    private SignInClientPool mClientPool;
     private CredentialsClient mCredentialsClient;
     private GoogleSignInClient mSignInClient;
     private ProgressDialog mProgressDialog;
-    private boolean mIsResolving = false;
+    private ResolutionScheduler mResolutionScheduler;
+    private SavedCredentialIndex mSavedIndex;
     private Credential mCredential;
 
+    // Incremented to ignore the results of the startup sign-in race that are still to come
+    private int mSignInRace = 0;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Resolutions are queued for the whole process, so they outlive this activity
+        mResolutionScheduler = ResolutionScheduler.getInstance();
+        mResolutionScheduler.onRestoreInstanceState(savedInstanceState);
+
         if (savedInstanceState != null) {
-            mIsResolving = savedInstanceState.getBoolean(KEY_IS_RESOLVING, false);
             mCredential = savedInstanceState.getParcelable(KEY_CREDENTIAL);
         }
 
-        // Build CredentialsClient and GoogleSignInClient, don't set account name
-        buildClients(null);
+        // Credentials already saved to SmartLock, so signing in again doesn't save them again
+        mSavedIndex = new SavedCredentialIndex(this);
+
+        // Get the shared CredentialsClient and a GoogleSignInClient without an account name
+        mClientPool = SignInClientPool.getInstance(this);
+        mCredentialsClient = mClientPool.getCredentialsClient();
+        mSignInClient = mClientPool.getSignInClient(null);
 
         // Sign in button
         SignInButton signInButton = (SignInButton) findViewById(R.id.button_google_sign_in);
@@ -85,33 +93,30 @@ public class MainActivity extends AppCompatActivity implements
         findViewById(R.id.button_email_save).setOnClickListener(this);
     }
 
-    private void buildClients(String accountName) {
-        GoogleSignInOptions.Builder gsoBuilder = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
-                .requestEmail();
-
-        if (accountName != null) {
-            gsoBuilder.setAccountName(accountName);
-        }
-
-        mCredentialsClient = Credentials.getClient(this);
-        mSignInClient = GoogleSignIn.getClient(this, gsoBuilder.build());
-    }
-
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putBoolean(KEY_IS_RESOLVING, mIsResolving);
+        mResolutionScheduler.onSaveInstanceState(outState);
         outState.putParcelable(KEY_CREDENTIAL, mCredential);
     }
 
     @Override
     public void onStart() {
         super.onStart();
-        if (!mIsResolving) {
-            requestCredentials(true /* shouldResolve */, false /* onlyPasswords */);
+        mResolutionScheduler.attach(this, this);
+        if (!mResolutionScheduler.isResolving()) {
+            signInOnStart();
         }
     }
 
+    @Override
+    public void onStop() {
+        super.onStop();
+        mResolutionScheduler.detach(this);
+        mSignInRace++;
+        hideProgress();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -121,19 +126,132 @@ public class MainActivity extends AppCompatActivity implements
             Task<GoogleSignInAccount> task = GoogleSignIn.getSignedInAccountFromIntent(data);
             handleGoogleSignIn(task);
         } else if (requestCode == RC_CREDENTIALS_READ) {
-            mIsResolving = false;
             if (resultCode == RESULT_OK) {
                 Credential credential = data.getParcelableExtra(Credential.EXTRA_KEY);
                 handleCredential(credential);
             }
         } else if (requestCode == RC_CREDENTIALS_SAVE) {
-            mIsResolving = false;
             if (resultCode == RESULT_OK) {
+                // Unknown if the process was killed while the dialog was showing
+                Credential saved =
+                        (Credential) mResolutionScheduler.getPayload(RC_CREDENTIALS_SAVE);
+                if (saved != null) {
+                    mSavedIndex.add(saved);
+                }
                 Toast.makeText(this, "Saved", Toast.LENGTH_SHORT).show();
             } else {
                 Log.w(TAG, "Credential save failed.");
             }
         }
+
+        // Show the next queued resolution, if any
+        mResolutionScheduler.onActivityResult(requestCode);
+    }
+
+    @Override
+    public void onResolutionNotStarted(int requestCode) {
+        Log.w(TAG, "onResolutionNotStarted:" + requestCode);
+    }
+
+    /**
+     * Sign in when the activity starts. If a Google account was signed in before, silent sign-in
+     * for that account runs at the same time as the SmartLock request rather than after it, and
+     * whichever signs the user in first wins. Neither API can cancel a request once it is made,
+     * so the loser's result is ignored. A SmartLock request that needs the user to pick a
+     * credential waits for the silent sign-in, and the picker is only shown if that fails. If
+     * SmartLock returns the account silent sign-in is for, only the silent sign-in's result counts.
+     */
+    private void signInOnStart() {
+        GoogleSignInAccount lastAccount = GoogleSignIn.getLastSignedInAccount(this);
+        if (lastAccount == null || lastAccount.getEmail() == null) {
+            requestCredentials(true /* shouldResolve */, false /* onlyPasswords */);
+            return;
+        }
+
+        final String accountName = lastAccount.getEmail();
+        final GoogleSignInClient signInClient = mClientPool.getSignInClient(accountName);
+        final Task<GoogleSignInAccount> silentSignIn = signInClient.silentSignIn();
+        if (silentSignIn.isComplete() && silentSignIn.isSuccessful()) {
+            // Signed in from the cached account, no need to ask SmartLock
+            mSignInClient = signInClient;
+            handleGoogleSignIn(silentSignIn);
+            return;
+        }
+
+        final int race = ++mSignInRace;
+        final Task<CredentialRequestResponse> request =
+                mCredentialsClient.request(buildCredentialRequest(false));
+        showProgress();
+
+        silentSignIn.addOnCompleteListener(new OnCompleteListener<GoogleSignInAccount>() {
+            @Override
+            public void onComplete(@NonNull Task<GoogleSignInAccount> task) {
+                if (race != mSignInRace) {
+                    return;
+                }
+
+                if (task.isSuccessful()) {
+                    Log.d(TAG, "signInOnStart: silent sign-in won");
+                    mSignInRace++;
+                    hideProgress();
+                    mSignInClient = signInClient;
+                    handleGoogleSignIn(task);
+                } else if (request.isComplete()) {
+                    mSignInRace++;
+                    hideProgress();
+                    if (request.isSuccessful() && isGoogleAccount(
+                            request.getResult().getCredential(), accountName)) {
+                        // SmartLock returned the account silent sign-in just failed for, and
+                        // signing in with that credential would only try the same again
+                        handleGoogleSignIn(task);
+                    } else {
+                        // Neither signed in, so go with whatever SmartLock said
+                        handleCredentialResponse(request, true);
+                    }
+                }
+            }
+        });
+
+        request.addOnCompleteListener(new OnCompleteListener<CredentialRequestResponse>() {
+            @Override
+            public void onComplete(@NonNull Task<CredentialRequestResponse> task) {
+                if (race != mSignInRace) {
+                    return;
+                }
+
+                if (task.isSuccessful()) {
+                    Credential credential = task.getResult().getCredential();
+                    if (isGoogleAccount(credential, accountName)) {
+                        // The silent sign-in for this account is the one this credential would
+                        // start, so keep the credential and let that decide. If it has already
+                        // failed, trying it again would fail the same way.
+                        mCredential = credential;
+                        mSavedIndex.add(credential);
+                        if (silentSignIn.isComplete()) {
+                            mSignInRace++;
+                            hideProgress();
+                            handleGoogleSignIn(silentSignIn);
+                        }
+                        return;
+                    }
+
+                    Log.d(TAG, "signInOnStart: SmartLock won");
+                    mSignInRace++;
+                    hideProgress();
+                    handleCredential(credential);
+                } else if (silentSignIn.isComplete()) {
+                    // Silent sign-in already failed
+                    mSignInRace++;
+                    hideProgress();
+                    handleCredentialResponse(task, true);
+                }
+            }
+        });
+    }
+
+    private static boolean isGoogleAccount(Credential credential, String accountName) {
+        return IdentityProviders.GOOGLE.equals(credential.getAccountType())
+                && accountName.equals(credential.getId());
     }
 
     private void googleSilentSignIn() {
@@ -157,11 +275,12 @@ public class MainActivity extends AppCompatActivity implements
 
     private void handleCredential(Credential credential) {
         mCredential = credential;
+        mSavedIndex.add(credential);
 
         Log.d(TAG, "handleCredential:" + credential.getAccountType() + ":" + credential.getId());
         if (IdentityProviders.GOOGLE.equals(credential.getAccountType())) {
-            // Google account, rebuild GoogleApiClient to set account name and then try
-            buildClients(credential.getId());
+            // Google account, use the client with the account name set and then try
+            mSignInClient = mClientPool.getSignInClient(credential.getId());
             googleSilentSignIn();
         } else {
             // Email/password account
@@ -199,7 +318,7 @@ public class MainActivity extends AppCompatActivity implements
         findViewById(R.id.button_google_revoke).setEnabled(isSignedIn);
     }
 
-    private void requestCredentials(final boolean shouldResolve, boolean onlyPasswords) {
+    private CredentialRequest buildCredentialRequest(boolean onlyPasswords) {
         CredentialRequest.Builder crBuilder = new CredentialRequest.Builder()
                 .setPasswordLoginSupported(true);
 
@@ -207,55 +326,57 @@ public class MainActivity extends AppCompatActivity implements
             crBuilder.setAccountTypes(IdentityProviders.GOOGLE);
         }
 
+        return crBuilder.build();
+    }
+
+    private void requestCredentials(final boolean shouldResolve, boolean onlyPasswords) {
         showProgress();
-        mCredentialsClient.request(crBuilder.build()).addOnCompleteListener(
+        mCredentialsClient.request(buildCredentialRequest(onlyPasswords)).addOnCompleteListener(
                 new OnCompleteListener<CredentialRequestResponse>() {
                     @Override
                     public void onComplete(@NonNull Task<CredentialRequestResponse> task) {
                         hideProgress();
-
-                        if (task.isSuccessful()) {
-                            // Auto sign-in success
-                            handleCredential(task.getResult().getCredential());
-                            return;
-                        }
-
-                        Exception e = task.getException();
-                        if (e instanceof ResolvableApiException && shouldResolve) {
-                            // Getting credential needs to show some UI, start resolution
-                            ResolvableApiException rae = (ResolvableApiException) e;
-                            resolveResult(rae, RC_CREDENTIALS_READ);
-                        } else {
-                            Log.w(TAG, "request: not handling exception", e);
-                        }
+                        handleCredentialResponse(task, shouldResolve);
                     }
                 });
     }
 
-    private void resolveResult(ResolvableApiException rae, int requestCode) {
-        if (!mIsResolving) {
-            try {
-                rae.startResolutionForResult(MainActivity.this, requestCode);
-                mIsResolving = true;
-            } catch (IntentSender.SendIntentException e) {
-                Log.e(TAG, "Failed to send Credentials intent.", e);
-                mIsResolving = false;
-            }
+    private void handleCredentialResponse(Task<CredentialRequestResponse> task,
+                                          boolean shouldResolve) {
+        if (task.isSuccessful()) {
+            // Auto sign-in success
+            handleCredential(task.getResult().getCredential());
+            return;
+        }
+
+        Exception e = task.getException();
+        if (e instanceof ResolvableApiException && shouldResolve) {
+            // Getting credential needs to show some UI, start resolution
+            ResolvableApiException rae = (ResolvableApiException) e;
+            mResolutionScheduler.enqueue(rae, RC_CREDENTIALS_READ);
+        } else {
+            Log.w(TAG, "request: not handling exception", e);
         }
     }
 
-    private void saveCredential(Credential credential) {
+    private void saveCredential(final Credential credential) {
         if (credential == null) {
             Log.w(TAG, "Ignoring null credential.");
             return;
         }
 
-        mCredentialsClient.save(mCredential).addOnCompleteListener(
+        if (mSavedIndex.contains(credential)) {
+            Log.d(TAG, "save:UNCHANGED");
+            return;
+        }
+
+        mCredentialsClient.save(credential).addOnCompleteListener(
                 new OnCompleteListener<Void>() {
                     @Override
                     public void onComplete(@NonNull Task<Void> task) {
                         if (task.isSuccessful()) {
                             Log.d(TAG, "save:SUCCESS");
+                            mSavedIndex.add(credential);
                             return;
                         }
 
@@ -264,7 +385,7 @@ public class MainActivity extends AppCompatActivity implements
                             // Saving the credential can sometimes require showing some UI
                             // to the user, which means we need to fire this resolution.
                             ResolvableApiException rae = (ResolvableApiException) e;
-                            resolveResult(rae, RC_CREDENTIALS_SAVE);
+                            mResolutionScheduler.enqueue(rae, RC_CREDENTIALS_SAVE, credential);
                         } else {
                             Log.w(TAG, "save:FAILURE", e);
                             Toast.makeText(MainActivity.this,
@@ -282,6 +403,7 @@ public class MainActivity extends AppCompatActivity implements
 
     private void onGoogleRevokeClicked() {
         if (mCredential != null) {
+            mSavedIndex.remove(mCredential);
             mCredentialsClient.delete(mCredential);
         }
         mSignInClient.revokeAccess().addOnCompleteListener(
@@ -0,0 +1,258 @@
+/**
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialssignin;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.IntentSender;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResolvableApiException;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide queue of the credential operations that need to show UI, such as picking a
+ * credential, confirming a save or picking a hint.
+ *
+ * Only one resolution is shown at a time. Any that arrive while one is showing, or while no
+ * activity is started, wait in order and the next one starts when {@link #onActivityResult(int)}
+ * reports that the current one has finished. Because the queue belongs to the process rather than
+ * the activity, a rotation while a resolution is showing neither loses the queued work nor starts
+ * a second dialog. The request code of the resolution showing is also kept in the activity's
+ * saved state, for when the process is killed in the background.
+ *
+ * A resolution can carry a payload, such as the credential a save resolution is for, which is
+ * handed back with {@link #getPayload(int)} when its result arrives. Each queued resolution keeps
+ * its own payload, so several can wait at once without mixing them up. Payloads are only kept in
+ * memory, never in the saved state, since a credential's password must not end up there. A result
+ * that arrives after the process was killed has no payload.
+ *
+ * A resolution whose result can no longer arrive must not block the queue for the rest of the
+ * process. One started from an activity that finishes is forgotten when that activity detaches,
+ * and one that has been showing for longer than {@link #RESOLUTION_TIMEOUT_MILLIS}, including one
+ * restored from saved state, is treated as abandoned.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ResolutionScheduler {
+
+    private static final String TAG = "ResolutionScheduler";
+    private static final String KEY_RESOLVING_REQUEST_CODE = "resolving_request_code";
+    private static final String KEY_RESOLVING_SINCE = "resolving_since";
+
+    static final long RESOLUTION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int NONE = -1;
+
+    public interface Callbacks {
+        /**
+         * Called in place of onActivityResult when a queued resolution could not be started.
+         */
+        void onResolutionNotStarted(int requestCode);
+    }
+
+    private static ResolutionScheduler sInstance;
+
+    private final Queue<Resolution> mQueue = new ArrayDeque<>();
+    private int mResolvingRequestCode = NONE;
+    // SystemClock.elapsedRealtime() when the resolution showing was started
+    private long mResolvingSinceMillis;
+    private Object mResolvingPayload;
+
+    private Activity mActivity;
+    private Callbacks mCallbacks;
+
+    public static synchronized ResolutionScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ResolutionScheduler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start showing queued resolutions from an activity, called from onStart.
+     */
+    public void attach(@NonNull Activity activity, @NonNull Callbacks callbacks) {
+        mActivity = activity;
+        mCallbacks = callbacks;
+        expireStaleResolution();
+        startNext();
+    }
+
+    /**
+     * Stop showing resolutions from an activity, called from onStop. Resolutions stay queued
+     * until another activity is attached.
+     */
+    public void detach(@NonNull Activity activity) {
+        // After a rotation the new activity may already be attached
+        if (mActivity != activity) {
+            return;
+        }
+        mActivity = null;
+        mCallbacks = null;
+
+        if (activity.isFinishing() && mResolvingRequestCode != NONE) {
+            // The result would have gone to this activity, so it will never be reported
+            Log.d(TAG, "Activity finished while showing " + mResolvingRequestCode);
+            clearResolving();
+        }
+    }
+
+    /**
+     * Queue the resolution of a failed credentials operation.
+     */
+    public void enqueue(@NonNull ResolvableApiException rae, int requestCode) {
+        enqueue(rae, requestCode, null);
+    }
+
+    /**
+     * Queue the resolution of a failed credentials operation.
+     * @param payload returned by {@link #getPayload(int)} when the resolution's result arrives.
+     */
+    public void enqueue(@NonNull ResolvableApiException rae, int requestCode,
+                        @Nullable Object payload) {
+        add(new Resolution(rae, null, requestCode, payload));
+    }
+
+    /**
+     * Queue a picker intent, such as the hint picker.
+     */
+    public void enqueue(@NonNull PendingIntent intent, int requestCode) {
+        add(new Resolution(null, intent, requestCode, null));
+    }
+
+    /**
+     * @return true if a resolution is showing, or was showing when the process was killed.
+     */
+    public boolean isResolving() {
+        expireStaleResolution();
+        return mResolvingRequestCode != NONE;
+    }
+
+    /**
+     * Get the payload the resolution showing was queued with, to handle its result. Call before
+     * {@link #onActivityResult(int)}.
+     * @return the payload, or null if there is none, it was lost with the process, or the
+     *         resolution showing has another request code.
+     */
+    @Nullable
+    public Object getPayload(int requestCode) {
+        return requestCode == mResolvingRequestCode ? mResolvingPayload : null;
+    }
+
+    /**
+     * Report a result delivered to the activity, starting the next queued resolution.
+     * @return true if the result was for the resolution the scheduler was showing.
+     */
+    public boolean onActivityResult(int requestCode) {
+        if (requestCode != mResolvingRequestCode) {
+            return false;
+        }
+
+        clearResolving();
+        startNext();
+        return true;
+    }
+
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        outState.putInt(KEY_RESOLVING_REQUEST_CODE, mResolvingRequestCode);
+        outState.putLong(KEY_RESOLVING_SINCE, mResolvingSinceMillis);
+    }
+
+    /**
+     * Restore the resolution that was showing when the process was killed, so that the activity
+     * waits for its result rather than starting another.
+     */
+    public void onRestoreInstanceState(@Nullable Bundle savedInstanceState) {
+        if (savedInstanceState != null && mResolvingRequestCode == NONE && mQueue.isEmpty()) {
+            mResolvingRequestCode = savedInstanceState.getInt(KEY_RESOLVING_REQUEST_CODE, NONE);
+            mResolvingSinceMillis = savedInstanceState.getLong(KEY_RESOLVING_SINCE, 0);
+            expireStaleResolution();
+        }
+    }
+
+    private void add(Resolution resolution) {
+        mQueue.add(resolution);
+        Log.d(TAG, "Queued " + resolution.mRequestCode + ", " + mQueue.size() + " waiting");
+        startNext();
+    }
+
+    private void startNext() {
+        while (mActivity != null && mResolvingRequestCode == NONE && !mQueue.isEmpty()) {
+            Resolution resolution = mQueue.remove();
+            try {
+                resolution.start(mActivity);
+                mResolvingRequestCode = resolution.mRequestCode;
+                mResolvingSinceMillis = SystemClock.elapsedRealtime();
+                mResolvingPayload = resolution.mPayload;
+            } catch (IntentSender.SendIntentException e) {
+                Log.e(TAG, "Failed to start resolution " + resolution.mRequestCode, e);
+                mCallbacks.onResolutionNotStarted(resolution.mRequestCode);
+            }
+        }
+    }
+
+    /**
+     * Forget a resolution that has been showing too long for its result to still be expected.
+     * The clock restarts at boot, so a start time in the future is stale too.
+     */
+    private void expireStaleResolution() {
+        if (mResolvingRequestCode == NONE) {
+            return;
+        }
+        long ageMillis = SystemClock.elapsedRealtime() - mResolvingSinceMillis;
+        if (ageMillis < 0 || ageMillis > RESOLUTION_TIMEOUT_MILLIS) {
+            Log.w(TAG, "Gave up waiting for the result of " + mResolvingRequestCode);
+            clearResolving();
+        }
+    }
+
+    private void clearResolving() {
+        mResolvingRequestCode = NONE;
+        mResolvingPayload = null;
+    }
+
+    private static class Resolution {
+        private final ResolvableApiException mException;
+        private final PendingIntent mIntent;
+        private final int mRequestCode;
+        private final Object mPayload;
+
+        Resolution(ResolvableApiException exception, PendingIntent intent, int requestCode,
+                   Object payload) {
+            mException = exception;
+            mIntent = intent;
+            mRequestCode = requestCode;
+            mPayload = payload;
+        }
+
+        void start(Activity activity) throws IntentSender.SendIntentException {
+            if (mException != null) {
+                mException.startResolutionForResult(activity, mRequestCode);
+            } else {
+                activity.startIntentSenderForResult(mIntent.getIntentSender(), mRequestCode,
+                        null, 0, 0, 0);
+            }
+        }
+    }
+}
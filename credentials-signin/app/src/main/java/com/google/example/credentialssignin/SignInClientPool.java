@@ -0,0 +1,99 @@
+/**
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.example.credentialssignin;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.auth.api.credentials.Credentials;
+import com.google.android.gms.auth.api.credentials.CredentialsClient;
+import com.google.android.gms.auth.api.signin.GoogleSignIn;
+import com.google.android.gms.auth.api.signin.GoogleSignInClient;
+import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide clients for the Credentials and Google Sign-In APIs.
+ *
+ * There is one CredentialsClient, and one GoogleSignInClient per account name, so that switching
+ * back to an account that was already seen, or recreating the activity, reuses a client that is
+ * already connected rather than building the options and binding to Play Services again. Only the
+ * {@link #MAX_SIGN_IN_CLIENTS} most recently used sign-in clients are kept.
+ *
+ * All methods must be called on the main thread.
+ */
+public class SignInClientPool {
+
+    static final int MAX_SIGN_IN_CLIENTS = 4;
+
+    // Key of the client that doesn't set an account name
+    private static final String DEFAULT_ACCOUNT = "";
+
+    private static SignInClientPool sInstance;
+
+    private final Context mContext;
+    private final CredentialsClient mCredentialsClient;
+
+    // Access ordered, so the least recently used client is evicted first
+    private final Map<String, GoogleSignInClient> mSignInClients =
+            new LinkedHashMap<String, GoogleSignInClient>(MAX_SIGN_IN_CLIENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, GoogleSignInClient> eldest) {
+                    return size() > MAX_SIGN_IN_CLIENTS;
+                }
+            };
+
+    public static synchronized SignInClientPool getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new SignInClientPool(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SignInClientPool(Context context) {
+        mContext = context;
+        mCredentialsClient = Credentials.getClient(context);
+    }
+
+    public CredentialsClient getCredentialsClient() {
+        return mCredentialsClient;
+    }
+
+    /**
+     * Get the sign-in client for an account, building it the first time the account is seen.
+     * @param accountName the account to sign in to, or null to let the user choose.
+     */
+    public GoogleSignInClient getSignInClient(@Nullable String accountName) {
+        String key = accountName != null ? accountName : DEFAULT_ACCOUNT;
+        GoogleSignInClient client = mSignInClients.get(key);
+        if (client == null) {
+            GoogleSignInOptions.Builder gsoBuilder =
+                    new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
+                            .requestEmail();
+
+            if (accountName != null) {
+                gsoBuilder.setAccountName(accountName);
+            }
+
+            client = GoogleSignIn.getClient(mContext, gsoBuilder.build());
+            mSignInClients.put(key, client);
+        }
+        return client;
+    }
+}
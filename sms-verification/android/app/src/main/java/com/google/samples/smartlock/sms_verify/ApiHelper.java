@@ -26,28 +26,28 @@ public class ApiHelper extends ContextWrapper {
     public static final int VERSION_GMS_V8_MAX = 10200000;
     private static final String TAG = ApiHelper.class.getSimpleName();
 
-    public static final String RESPONSE_SUCCESS = "success";
-    public static final String RESPONSE_PHONE = "phone";
+    public static final String RESPONSE_SUCCESS = ApiProtocol.RESPONSE_SUCCESS;
+    public static final String RESPONSE_PHONE = ApiProtocol.RESPONSE_PHONE;
 
     private RequestQueue requestQueue;
-    private PrefsHelper prefsHelper;
+    private PrefValue<String> secretOverride;
 
     public ApiHelper(Context base) {
         super(base);
         requestQueue = Volley.newRequestQueue(this);
-        prefsHelper = new PrefsHelper(this);
+        secretOverride = new PrefsHelper(this).observeSecretOverride();
     }
 
     public void request(String phoneNo, final RequestResponse successReceiver,
                         final ApiError failureReceiver) {
         HashMap<String, String> params = new HashMap<>();
-        params.put("phone", phoneNo);
+        params.put(ApiProtocol.PARAM_PHONE, phoneNo);
         sendRequest(R.string.url_request, params, new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
                 Boolean success = false;
                 try {
-                    success = response.getBoolean(RESPONSE_SUCCESS);
+                    success = ApiProtocol.parseSuccess(response);
                 } catch (JSONException e) {
                     Log.e(TAG, "Possible missing response value.", e);
                 }
@@ -64,8 +64,8 @@ public class ApiHelper extends ContextWrapper {
     public void verify(String phoneNo, String smsMessage, final VerifyResponse successReceiver,
                        final ApiError failureReceiver) {
         HashMap<String, String> params = new HashMap<>();
-        params.put("phone", phoneNo);
-        params.put("sms_message", smsMessage);
+        params.put(ApiProtocol.PARAM_PHONE, phoneNo);
+        params.put(ApiProtocol.PARAM_SMS_MESSAGE, smsMessage);
 
         sendRequest(R.string.url_verify, params, new Response.Listener<JSONObject>() {
             @Override
@@ -73,8 +73,8 @@ public class ApiHelper extends ContextWrapper {
                 Boolean success = false;
                 String phoneNo = null;
                 try {
-                    success = response.getBoolean(RESPONSE_SUCCESS);
-                    phoneNo = response.getString(RESPONSE_PHONE);
+                    success = ApiProtocol.parseSuccess(response);
+                    phoneNo = ApiProtocol.parsePhone(response);
                 } catch (JSONException e) {
                     Log.e(TAG, "Possible missing response value.", e);
                 }
@@ -91,13 +91,13 @@ public class ApiHelper extends ContextWrapper {
     public void reset(String phoneNo, final ResetResponse successReceiver,
                       final ApiError failureReceiver) {
         HashMap<String, String> params = new HashMap<>();
-        params.put("phone", phoneNo);
+        params.put(ApiProtocol.PARAM_PHONE, phoneNo);
         sendRequest(R.string.url_reset, params, new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
                 Boolean success = false;
                 try {
-                    success = response.getBoolean(RESPONSE_SUCCESS);
+                    success = ApiProtocol.parseSuccess(response);
                 } catch (JSONException e) {
                     Log.e(TAG, "Possible missing response value.", e);
                 }
@@ -118,7 +118,7 @@ public class ApiHelper extends ContextWrapper {
 
     protected void sendRequest(String url, HashMap<String, String> params, Response.Listener success,
                              Response.ErrorListener failure) {
-        String secret = prefsHelper.getSecretOverride(null);
+        String secret = secretOverride.get();
         if (TextUtils.isEmpty(secret)) {
             final int gmsVersion = getGmsVersion(getApplicationContext());
             Log.d(TAG, "GMS Version: " + gmsVersion);
@@ -128,11 +128,7 @@ public class ApiHelper extends ContextWrapper {
             }
         }
         try {
-            JSONObject args = new JSONObject();
-            args.put("client_secret", secret);
-            for (String key: params.keySet()) {
-                args.put(key, params.get(key));
-            }
+            JSONObject args = ApiProtocol.buildRequest(secret, params);
             JsonObjectRequest request = new JsonObjectRequest(Request.Method.POST, url,
                     args, success, failure);
             requestQueue.add(request);
@@ -0,0 +1,52 @@
+package com.google.samples.smartlock.sms_verify;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Request and response handling for the verification server API, kept free of Android and
+ * Volley classes so it can be benchmarked on the JVM.
+ */
+public final class ApiProtocol {
+    public static final String RESPONSE_SUCCESS = "success";
+    public static final String RESPONSE_PHONE = "phone";
+
+    public static final String PARAM_CLIENT_SECRET = "client_secret";
+    public static final String PARAM_PHONE = "phone";
+    public static final String PARAM_SMS_MESSAGE = "sms_message";
+
+    private ApiProtocol() {
+    }
+
+    /**
+     * Build the JSON body of a request.
+     * @param secret the client secret.
+     * @param params the request specific parameters.
+     */
+    public static JSONObject buildRequest(String secret, Map<String, String> params)
+            throws JSONException {
+        JSONObject args = new JSONObject();
+        args.put(PARAM_CLIENT_SECRET, secret);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            args.put(param.getKey(), param.getValue());
+        }
+        return args;
+    }
+
+    public static boolean parseSuccess(JSONObject response) throws JSONException {
+        return response.getBoolean(RESPONSE_SUCCESS);
+    }
+
+    public static String parsePhone(JSONObject response) throws JSONException {
+        return response.getString(RESPONSE_PHONE);
+    }
+
+    /**
+     * Check a verify response confirms the phone number that verification was requested for.
+     */
+    public static boolean isVerified(boolean success, String responsePhone, String requestPhone) {
+        return success && responsePhone != null && responsePhone.equals(requestPhone);
+    }
+}
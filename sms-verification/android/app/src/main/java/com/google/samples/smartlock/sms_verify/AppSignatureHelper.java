@@ -2,79 +2,154 @@ package com.google.samples.smartlock.sms_verify;
 
 import android.content.Context;
 import android.content.ContextWrapper;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
-import android.util.Base64;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
 import android.util.Log;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * This is a helper class to generate your message hash to be included in your SMS message.
  *
  * Without the correct hash, your app won't recieve the message callback. This only needs to be
  * generated once per app and stored. Then you can remove this helper class from your code.
+ *
+ * When the build signs the APK, the hash is also computed at build time and available as
+ * {@link SmsRetrieverConfig#HASH}.
  */
 public class AppSignatureHelper extends ContextWrapper {
     public static final String TAG = AppSignatureHelper.class.getSimpleName();
 
-    private static final String HASH_TYPE = "SHA-256";
-    public static final int NUM_HASHED_BYTES = 9;
-    public static final int NUM_BASE64_CHAR = 11;
+    public static final int NUM_HASHED_BYTES = SignatureHasher.NUM_HASHED_BYTES;
+    public static final int NUM_BASE64_CHAR = SignatureHasher.NUM_BASE64_CHAR;
+
+    // Hashes only change when the APK is replaced, which also changes its lastUpdateTime
+    private static final String CACHE_PREFS = "app_signature_cache";
+    private static final String KEY_UPDATE_TIME = "last_update_time";
+    private static final String KEY_HASHES = "hashes";
+    private static final String HASH_SEPARATOR = ",";
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+    // The APK can't be replaced without restarting the process, so this needs no checks
+    private static ArrayList<String> cachedHashes;
 
     public AppSignatureHelper(Context context) {
         super(context);
     }
 
     /**
-     * Get all the app signatures for the current package
+     * Get the app signatures on a background thread.
+     * @param callback called on the main thread with the signatures.
+     */
+    public void getAppSignaturesAsync(final Callback callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<String> appCodes = getAppSignatures();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onAppSignatures(appCodes);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get all the app signatures for the current package. Uses the hash computed at build time if
+     * there is one, otherwise hashes are cached in memory and on disk until the package is updated.
      * @return
      */
     public ArrayList<String> getAppSignatures() {
-        ArrayList<String> appCodes = new ArrayList<>();
+        if (SmsRetrieverConfig.HASH != null) {
+            ArrayList<String> appCodes = new ArrayList<>();
+            appCodes.add(SmsRetrieverConfig.HASH);
+            return appCodes;
+        }
+
+        synchronized (AppSignatureHelper.class) {
+            if (cachedHashes != null) {
+                return new ArrayList<>(cachedHashes);
+            }
+        }
 
+        ArrayList<String> appCodes = new ArrayList<>();
         try {
-            // Get all package signatures for the current package
             String packageName = getPackageName();
             PackageManager packageManager = getPackageManager();
+            long updateTime = packageManager.getPackageInfo(packageName, 0).lastUpdateTime;
+            ArrayList<String> cached = readCachedHashes(updateTime);
+            if (cached != null) {
+                return cached;
+            }
+
+            // Get all package signatures for the current package
             Signature[] signatures = packageManager.getPackageInfo(packageName,
                     PackageManager.GET_SIGNATURES).signatures;
 
             // For each signature create a compatible hash
             for (Signature signature : signatures) {
-                String hash = hash(packageName, signature.toCharsString());
+                String hash = hash(packageName, signature.toByteArray());
                 if (hash != null) {
-                    appCodes.add(String.format("%s", hash));
+                    appCodes.add(hash);
                 }
             }
+            writeCachedHashes(updateTime, appCodes);
         } catch (PackageManager.NameNotFoundException e) {
             Log.e(TAG, "Unable to find package to obtain hash.", e);
         }
         return appCodes;
     }
 
-    private static String hash(String packageName, String signature) {
-        String appInfo = packageName + " " + signature;
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance(HASH_TYPE);
-            messageDigest.update(appInfo.getBytes(StandardCharsets.UTF_8));
-            byte[] hashSignature = messageDigest.digest();
+    private ArrayList<String> readCachedHashes(long updateTime) {
+        SharedPreferences prefs = getSharedPreferences(CACHE_PREFS, MODE_PRIVATE);
+        String hashes = prefs.getString(KEY_HASHES, null);
+        if (hashes == null || prefs.getLong(KEY_UPDATE_TIME, -1) != updateTime) {
+            return null;
+        }
 
-            // truncated into NUM_HASHED_BYTES
-            hashSignature = Arrays.copyOfRange(hashSignature, 0, NUM_HASHED_BYTES);
-            // encode into Base64
-            String base64Hash = Base64.encodeToString(hashSignature, Base64.NO_PADDING | Base64.NO_WRAP);
-            base64Hash = base64Hash.substring(0, NUM_BASE64_CHAR);
+        ArrayList<String> appCodes = new ArrayList<>();
+        if (!hashes.isEmpty()) {
+            appCodes.addAll(Arrays.asList(TextUtils.split(hashes, HASH_SEPARATOR)));
+        }
+        synchronized (AppSignatureHelper.class) {
+            cachedHashes = new ArrayList<>(appCodes);
+        }
+        return appCodes;
+    }
+
+    private void writeCachedHashes(long updateTime, ArrayList<String> appCodes) {
+        synchronized (AppSignatureHelper.class) {
+            cachedHashes = new ArrayList<>(appCodes);
+        }
+        getSharedPreferences(CACHE_PREFS, MODE_PRIVATE).edit()
+                .putLong(KEY_UPDATE_TIME, updateTime)
+                .putString(KEY_HASHES, TextUtils.join(HASH_SEPARATOR, appCodes))
+                .apply();
+    }
 
-            Log.d(TAG, String.format("pkg: %s -- hash: %s", packageName, base64Hash));
+    private static String hash(String packageName, byte[] signature) {
+        try {
+            String base64Hash = SignatureHasher.hash(packageName, signature);
+            Log.d(TAG, "pkg: " + packageName + " -- hash: " + base64Hash);
             return base64Hash;
         } catch (NoSuchAlgorithmException e) {
             Log.e(TAG, "hash:NoSuchAlgorithm", e);
         }
         return null;
     }
+
+    public interface Callback {
+        public void onAppSignatures(ArrayList<String> appSignatures);
+    }
 }
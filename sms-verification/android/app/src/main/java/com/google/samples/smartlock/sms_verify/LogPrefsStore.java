@@ -0,0 +1,332 @@
+package com.google.samples.smartlock.sms_verify;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PrefsStore} backed by an append-only binary log.
+ *
+ * Each call to {@link #write(Map)} appends one length-prefixed record holding all of its
+ * changes, so a write costs the size of the changes rather than the size of the file. The log is
+ * read back through a memory-mapped buffer, later records win. A record cut short by a crash is
+ * dropped on load, which keeps every write all-or-nothing. Once the log has grown to
+ * {@link #COMPACT_RATIO} times its last compacted size it is rewritten with only the live values.
+ */
+public class LogPrefsStore implements PrefsStore {
+    private static final String TAG = LogPrefsStore.class.getSimpleName();
+
+    private static final byte TYPE_REMOVE = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_STRING = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_FLOAT = 5;
+
+    static final int COMPACT_MIN_BYTES = 4096;
+    static final int COMPACT_RATIO = 2;
+
+    private final File file;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // All disk access after loading happens on this thread, in order.
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private long logBytes;
+    private long compactedBytes;
+
+    /**
+     * Open the log, creating it from {@code migrateFrom} if it doesn't exist yet.
+     *
+     * @param file the log file.
+     * @param migrateFrom values of the previous backend, copied once when the log is created.
+     */
+    public LogPrefsStore(File file, @Nullable Map<String, ?> migrateFrom) {
+        this.file = file;
+        try {
+            if (file.exists()) {
+                load();
+            } else {
+                if (migrateFrom != null) {
+                    for (Map.Entry<String, ?> entry : migrateFrom.entrySet()) {
+                        if (typeOf(entry.getValue()) != TYPE_REMOVE) {
+                            values.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open preference log " + file, e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public void write(Map<String, Object> changes) {
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() != null && typeOf(change.getValue()) == TYPE_REMOVE) {
+                throw new IllegalArgumentException("Unsupported type for " + change.getKey());
+            }
+        }
+        final byte[] record = encode(changes);
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                values.remove(change.getKey());
+            } else {
+                values.put(change.getKey(), change.getValue());
+            }
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    append(record);
+                    if (logBytes > COMPACT_MIN_BYTES && logBytes > COMPACT_RATIO * compactedBytes) {
+                        compact();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to write preference log " + file, e);
+                }
+            }
+        });
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            for (Listener listener : listeners) {
+                listener.onChanged(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void registerListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unregisterListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Block until every write made so far is on disk.
+     */
+    public void flush() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "flush", e);
+        }
+    }
+
+    long getLogBytes() {
+        return logBytes;
+    }
+
+    private void load() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long valid = 0;
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                Map<String, Object> changes;
+                try {
+                    changes = decode(record);
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    break;
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        values.remove(change.getKey());
+                    } else {
+                        values.put(change.getKey(), change.getValue());
+                    }
+                }
+                buffer.position(buffer.position() + length);
+                valid = buffer.position();
+            }
+            if (valid < size) {
+                Log.w(TAG, "Dropping " + (size - valid) + " bytes of incomplete record.");
+                channel.truncate(valid);
+            }
+            logBytes = valid;
+            compactedBytes = valid;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(record);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        logBytes += record.length;
+    }
+
+    /**
+     * Rewrite the log as a single record of the live values and swap it in atomically.
+     */
+    private void compact() throws IOException {
+        byte[] record = encode(new HashMap<String, Object>(values));
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(record);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        logBytes = record.length;
+        compactedBytes = record.length;
+    }
+
+    static byte[] encode(Map<String, Object> changes) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // length, filled in below
+            out.writeInt(changes.size());
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                Object value = change.getValue();
+                byte type = typeOf(value);
+                out.writeByte(type);
+                writeString(out, change.getKey());
+                switch (type) {
+                    case TYPE_BOOLEAN:
+                        out.writeBoolean((Boolean) value);
+                        break;
+                    case TYPE_STRING:
+                        writeString(out, (String) value);
+                        break;
+                    case TYPE_INT:
+                        out.writeInt((Integer) value);
+                        break;
+                    case TYPE_LONG:
+                        out.writeLong((Long) value);
+                        break;
+                    case TYPE_FLOAT:
+                        out.writeFloat((Float) value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            ByteBuffer.wrap(record).putInt(record.length - 4);
+            return record;
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Map<String, Object> decode(ByteBuffer record) {
+        Map<String, Object> changes = new HashMap<>();
+        int count = record.getInt();
+        for (int i = 0; i < count; i++) {
+            byte type = record.get();
+            String key = readString(record);
+            switch (type) {
+                case TYPE_REMOVE:
+                    changes.put(key, null);
+                    break;
+                case TYPE_BOOLEAN:
+                    changes.put(key, record.get() != 0);
+                    break;
+                case TYPE_STRING:
+                    changes.put(key, readString(record));
+                    break;
+                case TYPE_INT:
+                    changes.put(key, record.getInt());
+                    break;
+                case TYPE_LONG:
+                    changes.put(key, record.getLong());
+                    break;
+                case TYPE_FLOAT:
+                    changes.put(key, record.getFloat());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type " + type);
+            }
+        }
+        return changes;
+    }
+
+    private static byte typeOf(@Nullable Object value) {
+        if (value == null) {
+            return TYPE_REMOVE;
+        } else if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof Float) {
+            return TYPE_FLOAT;
+        }
+        // String sets and other types aren't stored
+        return TYPE_REMOVE;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
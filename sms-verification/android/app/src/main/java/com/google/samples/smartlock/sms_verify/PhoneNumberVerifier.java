@@ -159,8 +159,10 @@ public class PhoneNumberVerifier extends Service {
     }
 
     private void setVerificationState(@Nullable String phoneNumber, boolean verified) {
-        prefs.setPhoneNumber(phoneNumber);
-        prefs.setVerified(verified);
+        prefs.edit()
+                .setPhoneNumber(phoneNumber)
+                .setVerified(verified)
+                .apply();
         Intent i = new Intent(ACTION_VERIFICATION_STATUS_CHANGE);
         LocalBroadcastManager.getInstance(PhoneNumberVerifier.this)
                 .sendBroadcast(i);
@@ -233,7 +235,7 @@ public class PhoneNumberVerifier extends Service {
                     @Override
                     public void onResponse(boolean success, String phoneNumber) {
                         String requestPhone = prefs.getPhoneNumber("");
-                        if (success && phoneNumber != null && phoneNumber.equals(requestPhone)) {
+                        if (ApiProtocol.isVerified(success, phoneNumber, requestPhone)) {
                             Log.d(TAG, "Successfully verified phone number: " + phoneNumber);
                             notifyStatus(STATUS_RESPONSE_VERIFIED, null);
                             Toast.makeText(PhoneNumberVerifier.this,
@@ -0,0 +1,95 @@
+package com.google.samples.smartlock.sms_verify;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A single typed preference that can be read from memory and observed for changes.
+ *
+ * Observers are called on the main thread, once with the current value when added and again
+ * each time the value changes. Remove them when done, e.g. in {@code onDestroy}.
+ */
+public class PrefValue<T> {
+    private final PrefsHelper helper;
+    private final String key;
+    private final Class<T> type;
+    private final T defaultValue;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Observer<? super T>> observers =
+            new CopyOnWriteArrayList<>();
+
+    private final PrefsStore.Listener storeListener = new PrefsStore.Listener() {
+        @Override
+        public void onChanged(String changedKey, @Nullable Object value) {
+            if (key.equals(changedKey)) {
+                dispatch(cast(value));
+            }
+        }
+    };
+
+    PrefValue(PrefsHelper helper, String key, Class<T> type, @Nullable T defaultValue) {
+        this.helper = helper;
+        this.key = key;
+        this.type = type;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * @return the current value, or the default if it isn't set.
+     */
+    public T get() {
+        return cast(helper.getStore().get(key));
+    }
+
+    public void observe(Observer<? super T> observer) {
+        addObserver(observer);
+        observer.onChanged(get());
+    }
+
+    /**
+     * Like {@link #observe(Observer)}, but the observer is only called when the value changes.
+     */
+    public void addObserver(Observer<? super T> observer) {
+        synchronized (observers) {
+            if (observers.isEmpty()) {
+                helper.getStore().registerListener(storeListener);
+            }
+            observers.addIfAbsent(observer);
+        }
+    }
+
+    public void removeObserver(Observer<? super T> observer) {
+        synchronized (observers) {
+            if (observers.remove(observer) && observers.isEmpty()) {
+                helper.getStore().unregisterListener(storeListener);
+            }
+        }
+    }
+
+    private void dispatch(final T value) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(value);
+                }
+            });
+            return;
+        }
+        for (Observer<? super T> observer : observers) {
+            observer.onChanged(value);
+        }
+    }
+
+    private T cast(@Nullable Object value) {
+        return type.isInstance(value) ? type.cast(value) : defaultValue;
+    }
+
+    public interface Observer<T> {
+        public void onChanged(T value);
+    }
+}
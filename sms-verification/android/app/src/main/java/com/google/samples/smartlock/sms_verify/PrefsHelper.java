@@ -1,9 +1,19 @@
 package com.google.samples.smartlock.sms_verify;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by pmatthews on 9/14/16.
@@ -16,18 +26,127 @@ public class PrefsHelper {
     private static final String KEY_VERIFIED = "phone_verified";
     private static final String KEY_SECRET_OVERRIDE = "secret_override";
 
-    private final SharedPreferences prefs;
+    private static final String LOG_STORE_FILE = "prefs.log";
+
+    private static Future<PrefsStore> defaultStore;
+    private static final AtomicLong blockedNanos = new AtomicLong();
+
+    private final Future<PrefsStore> pendingStore;
+    private volatile PrefsStore store;
+
+    private PrefValue<String> phoneNumber;
+    private PrefValue<Boolean> verified;
+    private PrefValue<String> secretOverride;
 
     public PrefsHelper(Context context) {
-        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        pendingStore = preload(context);
+    }
+
+    public PrefsHelper(PrefsStore store) {
+        this.pendingStore = null;
+        this.store = store;
+    }
+
+    /**
+     * Start loading the store shared by the whole process on a background thread, if it isn't
+     * already loading. Uses the binary log when {@code use_log_prefs_store} is set, migrating the
+     * default shared preferences into it the first time.
+     */
+    public static synchronized Future<PrefsStore> preload(Context context) {
+        if (defaultStore == null) {
+            final Context app = context.getApplicationContext();
+            FutureTask<PrefsStore> task = new FutureTask<>(new Callable<PrefsStore>() {
+                @Override
+                public PrefsStore call() {
+                    if (app.getResources().getBoolean(R.bool.use_log_prefs_store)) {
+                        File file = new File(app.getFilesDir(), LOG_STORE_FILE);
+                        if (file.exists()) {
+                            return new LogPrefsStore(file, null);
+                        }
+                        // Only parse the shared preferences for the one-off migration
+                        Map<String, ?> migrated =
+                                PreferenceManager.getDefaultSharedPreferences(app).getAll();
+                        return new LogPrefsStore(file, migrated);
+                    }
+                    return new SharedPrefsStore(
+                            PreferenceManager.getDefaultSharedPreferences(app));
+                }
+            });
+            new Thread(task, TAG).start();
+            defaultStore = task;
+        }
+        return defaultStore;
+    }
+
+    /**
+     * @return total time callers have spent waiting on the preload, in milliseconds.
+     */
+    public static long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    /**
+     * Get the store, waiting for the preload to finish if it hasn't yet.
+     */
+    PrefsStore getStore() {
+        PrefsStore loaded = store;
+        if (loaded != null) {
+            return loaded;
+        }
+
+        boolean blocking = !pendingStore.isDone();
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    loaded = pendingStore.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to load preferences", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (blocking) {
+            long waited = System.nanoTime() - start;
+            blockedNanos.addAndGet(waited);
+            Log.d(TAG, "Blocked " + TimeUnit.NANOSECONDS.toMillis(waited)
+                    + "ms waiting for preferences to load.");
+        }
+        store = loaded;
+        return loaded;
+    }
+
+    /**
+     * Start a transaction, all of its changes are written to disk together when applied.
+     */
+    public Transaction edit() {
+        return new Transaction();
     }
 
     public void setPhoneNumber(String phoneNumber) {
-        putString(KEY_PHONE, phoneNumber);
+        edit().setPhoneNumber(phoneNumber).apply();
     }
 
     public void removePhoneNumber() {
-        remove(PrefsHelper.KEY_PHONE);
+        edit().removePhoneNumber().apply();
+    }
+
+    /**
+     * The stored phone number, null when not set.
+     */
+    public synchronized PrefValue<String> observePhoneNumber() {
+        if (phoneNumber == null) {
+            phoneNumber = new PrefValue<>(this, KEY_PHONE, String.class, null);
+        }
+        return phoneNumber;
     }
 
     public String getPhoneNumber(@Nullable String defaultValue) {
@@ -35,44 +154,96 @@ public class PrefsHelper {
     }
 
     public void setVerified(boolean verified) {
-        putBoolean(KEY_VERIFIED, verified);
+        edit().setVerified(verified).apply();
     }
 
     public void removeVerified() {
-        remove(PrefsHelper.KEY_VERIFIED);
+        edit().removeVerified().apply();
+    }
+
+    /**
+     * Whether the stored phone number is verified, false when not set.
+     */
+    public synchronized PrefValue<Boolean> observeVerified() {
+        if (verified == null) {
+            verified = new PrefValue<>(this, KEY_VERIFIED, Boolean.class, false);
+        }
+        return verified;
     }
 
     public boolean getVerified(boolean defaultValue) {
         return getBoolean(KEY_VERIFIED, defaultValue);
     }
 
-    public String getSecretOverride(@Nullable String defaultValue) {
-        return getString(KEY_SECRET_OVERRIDE, defaultValue);
+    public void setSecretOverride(@Nullable String secret) {
+        edit().setSecretOverride(secret).apply();
     }
 
-    public boolean getBoolean(String key, boolean defaultValue) {
-        return prefs.getBoolean(key, defaultValue);
+    /**
+     * The server secret set in the settings screen, null when not set.
+     */
+    public synchronized PrefValue<String> observeSecretOverride() {
+        if (secretOverride == null) {
+            secretOverride = new PrefValue<>(this, KEY_SECRET_OVERRIDE, String.class, null);
+        }
+        return secretOverride;
     }
 
-    private String getString(String key, String defaultValue) {
-        return prefs.getString(key, defaultValue);
+    public String getSecretOverride(@Nullable String defaultValue) {
+        return getString(KEY_SECRET_OVERRIDE, defaultValue);
     }
 
-    private void putBoolean(String key, boolean value) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putBoolean(key, value);
-        editor.apply();
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = getStore().get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
     }
 
-    private void putString(String key, String value) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(key, value);
-        editor.apply();
+    private String getString(String key, String defaultValue) {
+        Object value = getStore().get(key);
+        return value instanceof String ? (String) value : defaultValue;
     }
 
-    private void remove(String key) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(key);
-        editor.apply();
+    /**
+     * A set of changes written to the store as one unit, so they cost one disk write.
+     */
+    public class Transaction {
+        private final Map<String, Object> changes = new HashMap<>();
+
+        private Transaction() {
+        }
+
+        public Transaction setPhoneNumber(@Nullable String phoneNumber) {
+            changes.put(KEY_PHONE, phoneNumber);
+            return this;
+        }
+
+        public Transaction removePhoneNumber() {
+            changes.put(KEY_PHONE, null);
+            return this;
+        }
+
+        public Transaction setVerified(boolean verified) {
+            changes.put(KEY_VERIFIED, verified);
+            return this;
+        }
+
+        public Transaction removeVerified() {
+            changes.put(KEY_VERIFIED, null);
+            return this;
+        }
+
+        public Transaction setSecretOverride(@Nullable String secret) {
+            changes.put(KEY_SECRET_OVERRIDE, secret);
+            return this;
+        }
+
+        /**
+         * Update the in-memory values immediately and queue a single write to disk.
+         */
+        public void apply() {
+            if (!changes.isEmpty()) {
+                getStore().write(changes);
+            }
+        }
     }
 }
@@ -0,0 +1,33 @@
+package com.google.samples.smartlock.sms_verify;
+
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * Storage backend for {@link PrefsHelper}.
+ *
+ * Values are Boolean, String, Integer, Long or Float. Reads are served from memory, writes are
+ * persisted in the background.
+ */
+public interface PrefsStore {
+
+    /**
+     * @return the stored value, or null if the key is not set.
+     */
+    @Nullable
+    Object get(String key);
+
+    /**
+     * Write a set of changes as one unit. A null value removes the key.
+     */
+    void write(Map<String, Object> changes);
+
+    void registerListener(Listener listener);
+
+    void unregisterListener(Listener listener);
+
+    interface Listener {
+        public void onChanged(String key, @Nullable Object value);
+    }
+}
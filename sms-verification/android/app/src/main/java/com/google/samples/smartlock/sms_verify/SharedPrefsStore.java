@@ -0,0 +1,93 @@
+package com.google.samples.smartlock.sms_verify;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link PrefsStore} backed by a {@link SharedPreferences} XML file.
+ */
+public class SharedPrefsStore implements PrefsStore {
+
+    private final SharedPreferences prefs;
+
+    // In-memory copy of the stored values, reads never touch the framework map lock.
+    private final Map<String, Object> snapshot = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Keeps the snapshot in line with writes made elsewhere, e.g. the settings screen.
+    // SharedPreferences only holds a weak reference to listeners, so it's kept in a field.
+    private final SharedPreferences.OnSharedPreferenceChangeListener changeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    Object value = sharedPreferences.getAll().get(key);
+                    cache(key, value);
+                    for (Listener listener : listeners) {
+                        listener.onChanged(key, value);
+                    }
+                }
+            };
+
+    public SharedPrefsStore(SharedPreferences prefs) {
+        this.prefs = prefs;
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            cache(entry.getKey(), entry.getValue());
+        }
+        prefs.registerOnSharedPreferenceChangeListener(changeListener);
+    }
+
+    @Nullable
+    @Override
+    public Object get(String key) {
+        return snapshot.get(key);
+    }
+
+    @Override
+    public void write(Map<String, Object> changes) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            String key = change.getKey();
+            Object value = change.getValue();
+            if (value == null) {
+                editor.remove(key);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(key, (Float) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported type for " + key);
+            }
+            cache(key, value);
+        }
+        editor.apply();
+    }
+
+    @Override
+    public void registerListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unregisterListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void cache(String key, @Nullable Object value) {
+        if (value == null) {
+            snapshot.remove(key);
+        } else {
+            snapshot.put(key, value);
+        }
+    }
+}
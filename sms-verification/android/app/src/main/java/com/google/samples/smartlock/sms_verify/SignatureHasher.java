@@ -0,0 +1,118 @@
+package com.google.samples.smartlock.sms_verify;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the SMS Retriever app hash without intermediate allocations.
+ *
+ * The result is the same as encoding {@code packageName + " " + hexSignature} as UTF-8, taking
+ * its SHA-256, truncating that to {@link #NUM_HASHED_BYTES} bytes and keeping the first
+ * {@link #NUM_BASE64_CHAR} Base64 characters. Here the digest and buffers are reused per thread,
+ * the hex signature is fed to the digest in chunks as it's produced, and the truncated bytes are
+ * encoded straight into the result string.
+ *
+ * This class has no Android dependencies, so it can be benchmarked on the JVM.
+ */
+public final class SignatureHasher {
+    public static final int NUM_HASHED_BYTES = 9;
+    public static final int NUM_BASE64_CHAR = 11;
+
+    private static final String HASH_TYPE = "SHA-256";
+    private static final int BUFFER_SIZE = 512;
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+    private static final char[] BASE64_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private SignatureHasher() {
+    }
+
+    /**
+     * @param packageName the application id.
+     * @param signature the signing certificate, as returned by {@code Signature.toByteArray()}.
+     * @return the 11 character app hash.
+     */
+    public static String hash(String packageName, byte[] signature)
+            throws NoSuchAlgorithmException {
+        State s = state.get();
+        MessageDigest digest = s.getDigest();
+        digest.reset();
+        byte[] buffer = s.buffer;
+
+        // Package names are ASCII, anything else takes the slow path to get the same UTF-8 bytes
+        int length = packageName.length();
+        if (length + 1 > BUFFER_SIZE || !isAscii(packageName)) {
+            digest.update((packageName + " ").getBytes(StandardCharsets.UTF_8));
+            length = 0;
+        } else {
+            for (int i = 0; i < length; i++) {
+                buffer[i] = (byte) packageName.charAt(i);
+            }
+            buffer[length++] = ' ';
+        }
+
+        for (byte b : signature) {
+            if (length + 2 > BUFFER_SIZE) {
+                digest.update(buffer, 0, length);
+                length = 0;
+            }
+            buffer[length++] = HEX_DIGITS[(b >> 4) & 0xf];
+            buffer[length++] = HEX_DIGITS[b & 0xf];
+        }
+        digest.update(buffer, 0, length);
+
+        byte[] hash = s.hash;
+        try {
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            // Only thrown if the output buffer is too small
+            throw new IllegalStateException(e);
+        }
+
+        // Each 3 bytes become 4 Base64 characters, the last one is dropped by the truncation
+        char[] chars = s.chars;
+        int c = 0;
+        for (int i = 0; i + 2 < NUM_HASHED_BYTES; i += 3) {
+            int bits = (hash[i] & 0xff) << 16 | (hash[i + 1] & 0xff) << 8 | (hash[i + 2] & 0xff);
+            for (int shift = 18; shift >= 0 && c < chars.length; shift -= 6) {
+                chars[c++] = BASE64_DIGITS[(bits >> shift) & 0x3f];
+            }
+        }
+        return new String(chars, 0, c);
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class State {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final byte[] hash = new byte[32];
+        final char[] chars = new char[NUM_BASE64_CHAR];
+        private MessageDigest digest;
+
+        MessageDigest getDigest() throws NoSuchAlgorithmException {
+            if (digest == null) {
+                digest = MessageDigest.getInstance(HASH_TYPE);
+            }
+            return digest;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.google.samples.smartlock.sms_verify;
+
+import android.app.Application;
+
+/**
+ * Starts loading the app's preferences as soon as the process starts, so the first
+ * {@link PrefsHelper} read from an activity or service doesn't wait on disk.
+ */
+public class SmsVerifyApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        PrefsHelper.preload(this);
+    }
+}
@@ -18,23 +18,33 @@ import android.view.View;
 import android.widget.FrameLayout;
 
 import com.google.samples.smartlock.sms_verify.PhoneNumberVerifier;
+import com.google.samples.smartlock.sms_verify.PrefValue;
 import com.google.samples.smartlock.sms_verify.PrefsHelper;
 import com.google.samples.smartlock.sms_verify.R;
 
 public class MainActivity extends AppCompatActivity {
     public static final String TAG = MainActivity.class.getSimpleName();
 
-    private PrefsHelper prefs;
+    private PrefValue<Boolean> verified;
+    private PrefValue<String> phoneNumber;
     private String verifiedPhoneNo;
     private MainUi ui;
     private VerificationStatusChangeReceiver verificationReceiver;
 
+    private final PrefValue.Observer<Object> statusObserver = new PrefValue.Observer<Object>() {
+        @Override
+        public void onChanged(Object value) {
+            updateStatus();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        prefs = new PrefsHelper(this);
+        PrefsHelper prefs = new PrefsHelper(this);
+        verified = prefs.observeVerified();
+        phoneNumber = prefs.observePhoneNumber();
         verificationReceiver = new VerificationStatusChangeReceiver();
         ui = new MainUi(findViewById(R.id.activity_main), new StatusFragment(),
                 new VerifyingFragment());
@@ -53,14 +63,24 @@ public class MainActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
+    protected void onStart() {
+        super.onStart();
+        // Show the current status once, with both values registered, then again on every change
+        verified.addObserver(statusObserver);
+        phoneNumber.addObserver(statusObserver);
         updateStatus();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        verified.removeObserver(statusObserver);
+        phoneNumber.removeObserver(statusObserver);
+    }
+
     protected void updateStatus() {
-        boolean isVerified = prefs.getVerified(false);
-        verifiedPhoneNo = prefs.getPhoneNumber(null);
+        boolean isVerified = verified.get();
+        verifiedPhoneNo = phoneNumber.get();
         ui.setFragment(!isVerified && PhoneNumberVerifier.isVerifying());
         ui.notifyStatus(verifiedPhoneNo);
     }
@@ -53,8 +53,10 @@ public class ResetActivity extends PhoneNumberActivity {
 
                             String storedPhone = prefs.getPhoneNumber(null);
                             if (phoneNumber.equals(storedPhone)) {
-                                prefs.removeVerified();
-                                prefs.removePhoneNumber();
+                                prefs.edit()
+                                        .removeVerified()
+                                        .removePhoneNumber()
+                                        .apply();
                             }
                             finish();
                         }
@@ -10,6 +10,7 @@ import android.preference.PreferenceFragment;
 import android.view.MenuItem;
 
 import com.google.samples.smartlock.sms_verify.AppSignatureHelper;
+import com.google.samples.smartlock.sms_verify.PrefsHelper;
 import com.google.samples.smartlock.sms_verify.R;
 
 import java.util.ArrayList;
@@ -64,13 +65,34 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
             addPreferencesFromResource(R.xml.pref_main);
 
             PreferenceScreen screen = getPreferenceScreen();
-            AppSignatureHelper signatureHelper = new AppSignatureHelper(getActivity());
 
-            ArrayList<String> appSignatures = signatureHelper.getAppSignatures();
-            Preference pref = screen.findPreference("app_signature");
-            if (!appSignatures.isEmpty() && pref != null) {
-                pref.setSummary(appSignatures.get(0));
+            // The preference screen always saves to the default shared preferences, pass the
+            // override on so it also reaches PrefsHelper when it uses another store. With the
+            // default store that would write the same key twice.
+            Preference secretPref = screen.findPreference("secret_override");
+            if (secretPref != null && getResources().getBoolean(R.bool.use_log_prefs_store)) {
+                final PrefsHelper prefs = new PrefsHelper(getActivity());
+                secretPref.setOnPreferenceChangeListener(
+                        new Preference.OnPreferenceChangeListener() {
+                            @Override
+                            public boolean onPreferenceChange(Preference preference,
+                                                              Object newValue) {
+                                prefs.setSecretOverride((String) newValue);
+                                return true;
+                            }
+                        });
             }
+            AppSignatureHelper signatureHelper = new AppSignatureHelper(getActivity());
+
+            final Preference pref = screen.findPreference("app_signature");
+            signatureHelper.getAppSignaturesAsync(new AppSignatureHelper.Callback() {
+                @Override
+                public void onAppSignatures(ArrayList<String> appSignatures) {
+                    if (!appSignatures.isEmpty() && pref != null) {
+                        pref.setSummary(appSignatures.get(0));
+                    }
+                }
+            });
         }
 
     }
@@ -0,0 +1,83 @@
+package com.google.samples.smartlock.sms_verify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LogPrefsStore}.
+ */
+public class LogPrefsStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writes_surviveReopen() throws Exception {
+        File file = new File(tmp.getRoot(), "prefs.log");
+        LogPrefsStore store = new LogPrefsStore(file, null);
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("phone_number", "+15555550100");
+        changes.put("phone_verified", true);
+        store.write(changes);
+        store.write(Collections.<String, Object>singletonMap("phone_number", null));
+        store.flush();
+
+        LogPrefsStore reopened = new LogPrefsStore(file, null);
+        assertNull(reopened.get("phone_number"));
+        assertEquals(true, reopened.get("phone_verified"));
+    }
+
+    @Test
+    public void migration_onlyRunsOnce() throws Exception {
+        File file = new File(tmp.getRoot(), "prefs.log");
+        Map<String, Object> xml = new HashMap<>();
+        xml.put("secret_override", "abc");
+        xml.put("count", 3);
+        new LogPrefsStore(file, xml).flush();
+
+        xml.put("secret_override", "changed");
+        LogPrefsStore store = new LogPrefsStore(file, xml);
+        assertEquals("abc", store.get("secret_override"));
+        assertEquals(3, store.get("count"));
+    }
+
+    @Test
+    public void truncatedRecord_isDropped() throws Exception {
+        File file = new File(tmp.getRoot(), "prefs.log");
+        LogPrefsStore store = new LogPrefsStore(file, null);
+        store.write(Collections.<String, Object>singletonMap("phone_verified", true));
+        store.flush();
+        long good = file.length();
+
+        byte[] record = LogPrefsStore.encode(
+                Collections.<String, Object>singletonMap("phone_verified", false));
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(record, 0, record.length - 1);
+        out.close();
+
+        LogPrefsStore reopened = new LogPrefsStore(file, null);
+        assertEquals(true, reopened.get("phone_verified"));
+        assertEquals(good, file.length());
+    }
+
+    @Test
+    public void log_isCompacted() throws Exception {
+        File file = new File(tmp.getRoot(), "prefs.log");
+        LogPrefsStore store = new LogPrefsStore(file, null);
+        for (int i = 0; i < 1000; i++) {
+            store.write(Collections.<String, Object>singletonMap("phone_number", "n" + i));
+        }
+        store.flush();
+
+        assertTrue(file.length() <= LogPrefsStore.COMPACT_MIN_BYTES);
+        assertEquals("n999", new LogPrefsStore(file, null).get("phone_number"));
+    }
+}
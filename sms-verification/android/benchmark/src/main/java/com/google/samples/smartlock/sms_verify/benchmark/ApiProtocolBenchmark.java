@@ -0,0 +1,68 @@
+package com.google.samples.smartlock.sms_verify.benchmark;
+
+import com.google.samples.smartlock.sms_verify.ApiProtocol;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server API handling, as done by ApiHelper.sendRequest and PhoneNumberVerifier.verifyMessage.
+ * Bodies are serialized and parsed as Volley's JsonObjectRequest does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApiProtocolBenchmark {
+    static final String SECRET = "0123456789abcdef0123456789abcdef";
+    static final String PHONE = "+15555550100";
+    static final String SMS_MESSAGE = "<#> Your ExampleApp code is: 123456\nFA+9qCX9VSu";
+    static final String REQUEST_RESPONSE = "{\"success\": true}";
+    static final String VERIFY_RESPONSE = "{\"success\": true, \"phone\": \"" + PHONE + "\"}";
+
+    private HashMap<String, String> requestParams;
+
+    @Setup
+    public void setUp() {
+        requestParams = new HashMap<>();
+        requestParams.put(ApiProtocol.PARAM_PHONE, PHONE);
+    }
+
+    @Benchmark
+    public String requestBody() throws JSONException {
+        return ApiProtocol.buildRequest(SECRET, requestParams).toString();
+    }
+
+    @Benchmark
+    public boolean requestResponse() throws JSONException {
+        return ApiProtocol.parseSuccess(new JSONObject(REQUEST_RESPONSE));
+    }
+
+    @Benchmark
+    public boolean verifyMessage() throws JSONException {
+        HashMap<String, String> params = new HashMap<>();
+        params.put(ApiProtocol.PARAM_PHONE, PHONE);
+        params.put(ApiProtocol.PARAM_SMS_MESSAGE, SMS_MESSAGE);
+        String body = ApiProtocol.buildRequest(SECRET, params).toString();
+
+        JSONObject response = new JSONObject(VERIFY_RESPONSE);
+        boolean success = ApiProtocol.parseSuccess(response);
+        String phone = ApiProtocol.parsePhone(response);
+        return !body.isEmpty() && ApiProtocol.isVerified(success, phone, PHONE);
+    }
+}
@@ -0,0 +1,51 @@
+package com.google.samples.smartlock.sms_verify.benchmark;
+
+import com.google.samples.smartlock.sms_verify.SignatureHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SMS Retriever app hash, as computed by AppSignatureHelper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AppHashBenchmark {
+    static final String PACKAGE_NAME = "com.google.samples.smartlock.sms_verify";
+    // About the size of a 2048 bit RSA signing certificate
+    static final int CERT_SIZE = 700;
+
+    private byte[] cert;
+
+    @Setup
+    public void setUp() {
+        cert = new byte[CERT_SIZE];
+        new Random(1).nextBytes(cert);
+    }
+
+    @Benchmark
+    public String signatureHasher() throws NoSuchAlgorithmException {
+        return SignatureHasher.hash(PACKAGE_NAME, cert);
+    }
+
+    @Benchmark
+    public String legacyHash() throws NoSuchAlgorithmException {
+        return LegacyAppHash.hash(PACKAGE_NAME, cert);
+    }
+}
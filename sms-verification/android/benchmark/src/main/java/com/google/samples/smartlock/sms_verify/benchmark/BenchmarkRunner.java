@@ -0,0 +1,163 @@
+package com.google.samples.smartlock.sms_verify.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks and checks them against the regression thresholds in
+ * {@code thresholds.properties}. Exits with status 1 if any benchmark is over an enforced
+ * threshold, and only warns about advisory ones.
+ *
+ * Arguments, if any, are regular expressions selecting the benchmarks to run.
+ */
+public class BenchmarkRunner {
+    private static final String THRESHOLDS = "thresholds.properties";
+    private static final String ALLOC_RESULT = "\u00b7gc.alloc.rate.norm";
+    private static final String BASELINE = ".baseline";
+
+    public static void main(String[] args) throws Exception {
+        Properties thresholds = loadThresholds();
+        OptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        }
+        for (String include : args) {
+            options.include(include);
+            // Run the baselines of the selected benchmarks too, so they can be compared
+            for (String name : thresholds.stringPropertyNames()) {
+                if (name.endsWith(BASELINE) && Pattern.compile(include)
+                        .matcher(name.substring(0, name.length() - BASELINE.length())).find()) {
+                    options.include(Pattern.quote(thresholds.getProperty(name)) + "$");
+                }
+            }
+        }
+        options.addProfiler(GCProfiler.class);
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+        List<String> warnings = new ArrayList<>();
+        List<String> failures = check(results, thresholds, warnings);
+        if (!warnings.isEmpty()) {
+            System.err.println("Over advisory thresholds:");
+            for (String warning : warnings) {
+                System.err.println("  " + warning);
+            }
+        }
+        if (!failures.isEmpty()) {
+            System.err.println("Benchmark regressions:");
+            for (String failure : failures) {
+                System.err.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("All benchmarks within thresholds.");
+    }
+
+    /**
+     * Compare results to thresholds, keyed by {@code SimpleClassName.method} plus {@code .ns} for
+     * the average time per op or {@code .bytes} for the bytes allocated per op.
+     *
+     * A benchmark with a {@code .baseline} is compared to that benchmark from the same run, and
+     * its thresholds are fractions of the baseline's scores. Otherwise {@code .bytes} is a limit
+     * in bytes, and {@code .ns} a limit in nanoseconds that is only advisory, because times depend
+     * on the machine.
+     *
+     * @param warnings receives the advisory thresholds that were exceeded.
+     * @return the enforced thresholds that were exceeded.
+     */
+    static List<String> check(Collection<RunResult> results, Properties thresholds,
+                              List<String> warnings) {
+        Map<String, RunResult> byKey = new HashMap<>();
+        for (RunResult result : results) {
+            byKey.put(getKey(result), result);
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, RunResult> entry : byKey.entrySet()) {
+            String key = entry.getKey();
+            RunResult result = entry.getValue();
+            String maxNanos = thresholds.getProperty(key + ".ns");
+            String maxBytes = thresholds.getProperty(key + ".bytes");
+
+            String baselineKey = thresholds.getProperty(key + BASELINE);
+            if (baselineKey != null) {
+                RunResult baseline = byKey.get(baselineKey);
+                if (baseline == null) {
+                    warnings.add(key + ": baseline " + baselineKey + " was not run");
+                    continue;
+                }
+                checkRatio(failures, key, "ns/op", getNanos(result), getNanos(baseline),
+                        maxNanos);
+                checkRatio(failures, key, "B/op", getBytes(result), getBytes(baseline),
+                        maxBytes);
+                continue;
+            }
+
+            double nanos = getNanos(result);
+            if (maxNanos != null && nanos > Double.parseDouble(maxNanos)) {
+                warnings.add(String.format("%s: %.0f ns/op > %s ns/op", key, nanos, maxNanos));
+            }
+            double bytes = getBytes(result);
+            if (maxBytes != null && !Double.isNaN(bytes)
+                    && bytes > Double.parseDouble(maxBytes)) {
+                failures.add(String.format("%s: %.0f B/op > %s B/op", key, bytes, maxBytes));
+            }
+        }
+        return failures;
+    }
+
+    private static void checkRatio(List<String> failures, String key, String unit, double score,
+                                   double baseline, String maxRatio) {
+        if (maxRatio == null || Double.isNaN(score) || Double.isNaN(baseline) || baseline <= 0) {
+            return;
+        }
+        double ratio = score / baseline;
+        if (ratio > Double.parseDouble(maxRatio)) {
+            failures.add(String.format("%s: %.0f %s is %.3fx the baseline's %.0f %s > %sx", key,
+                    score, unit, ratio, baseline, unit, maxRatio));
+        }
+    }
+
+    private static String getKey(RunResult result) {
+        String benchmark = result.getParams().getBenchmark();
+        return benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+    }
+
+    private static double getNanos(RunResult result) {
+        return result.getPrimaryResult().getScore();
+    }
+
+    /**
+     * @return bytes allocated per op, or NaN if the GC profiler didn't report it.
+     */
+    private static double getBytes(RunResult result) {
+        Result<?> alloc = result.getSecondaryResults().get(ALLOC_RESULT);
+        return alloc == null ? Double.NaN : alloc.getScore();
+    }
+
+    private static Properties loadThresholds() throws IOException {
+        Properties thresholds = new Properties();
+        InputStream in = BenchmarkRunner.class.getClassLoader().getResourceAsStream(THRESHOLDS);
+        if (in == null) {
+            throw new IOException("Missing " + THRESHOLDS);
+        }
+        try {
+            thresholds.load(in);
+        } finally {
+            in.close();
+        }
+        return thresholds;
+    }
+}
@@ -0,0 +1,45 @@
+package com.google.samples.smartlock.sms_verify.benchmark;
+
+import com.google.samples.smartlock.sms_verify.SignatureHasher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The app hash as AppSignatureHelper computed it before {@link SignatureHasher}, with
+ * java.util.Base64 in place of android.util.Base64 and a hex string like
+ * Signature.toCharsString().
+ */
+public final class LegacyAppHash {
+
+    private LegacyAppHash() {
+    }
+
+    public static String hash(String packageName, byte[] cert) throws NoSuchAlgorithmException {
+        String appInfo = packageName + " " + toCharsString(cert);
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        messageDigest.update(appInfo.getBytes(StandardCharsets.UTF_8));
+        byte[] hashSignature = messageDigest.digest();
+        hashSignature = Arrays.copyOfRange(hashSignature, 0, SignatureHasher.NUM_HASHED_BYTES);
+        String base64Hash = Base64.getEncoder().withoutPadding().encodeToString(hashSignature);
+        base64Hash = base64Hash.substring(0, SignatureHasher.NUM_BASE64_CHAR);
+        // The old code formatted this for Log.d on every call, kept so the baseline pays for it
+        String.format("pkg: %s -- hash: %s", packageName, base64Hash);
+        return base64Hash;
+    }
+
+    private static String toCharsString(byte[] sig) {
+        char[] text = new char[sig.length * 2];
+        for (int j = 0; j < sig.length; j++) {
+            byte v = sig[j];
+            int d = (v >> 4) & 0xf;
+            text[j * 2] = (char) (d >= 10 ? ('a' + d - 10) : ('0' + d));
+            d = v & 0xf;
+            text[j * 2 + 1] = (char) (d >= 10 ? ('a' + d - 10) : ('0' + d));
+        }
+        return new String(text);
+    }
+}
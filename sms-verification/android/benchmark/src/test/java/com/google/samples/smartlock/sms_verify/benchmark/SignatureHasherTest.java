@@ -0,0 +1,69 @@
+package com.google.samples.smartlock.sms_verify.benchmark;
+
+import com.google.samples.smartlock.sms_verify.SignatureHasher;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link SignatureHasher} against the string based hash it replaced.
+ */
+public class SignatureHasherTest {
+    private static final String PACKAGE_NAME = AppHashBenchmark.PACKAGE_NAME;
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void hash_matchesLegacyHash() throws Exception {
+        Random random = new Random(42);
+        for (int size : new int[] {0, 1, 255, 256, 700, 1500, 4096}) {
+            byte[] cert = new byte[size];
+            random.nextBytes(cert);
+            assertEquals(LegacyAppHash.hash(PACKAGE_NAME, cert),
+                    SignatureHasher.hash(PACKAGE_NAME, cert));
+        }
+    }
+
+    @Test
+    public void hash_nonAsciiPackage_matchesLegacyHash() throws Exception {
+        byte[] cert = new byte[700];
+        new Random(7).nextBytes(cert);
+        String packageName = "com.example.\u00e9t\u00e9";
+        assertEquals(LegacyAppHash.hash(packageName, cert),
+                SignatureHasher.hash(packageName, cert));
+    }
+
+    @Test
+    public void hash_allocatesLessThanLegacyHash() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        byte[] cert = new byte[AppHashBenchmark.CERT_SIZE];
+        new Random(1).nextBytes(cert);
+        for (int i = 0; i < ITERATIONS; i++) {
+            LegacyAppHash.hash(PACKAGE_NAME, cert);
+            SignatureHasher.hash(PACKAGE_NAME, cert);
+        }
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            LegacyAppHash.hash(PACKAGE_NAME, cert);
+        }
+        long legacyBytes = threads.getThreadAllocatedBytes(threadId) - start;
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            SignatureHasher.hash(PACKAGE_NAME, cert);
+        }
+        long hasherBytes = threads.getThreadAllocatedBytes(threadId) - start;
+
+        assertTrue("SignatureHasher " + hasherBytes / ITERATIONS + " B/op vs legacy "
+                + legacyBytes / ITERATIONS + " B/op", hasherBytes * 10 < legacyBytes);
+    }
+}
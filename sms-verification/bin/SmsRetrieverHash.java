@@ -0,0 +1,318 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates SMS Retriever app hashes for every package and keystore alias combination.
+ *
+ * Computes the same hash as AppSignatureHelper.hash in the Android app: the first 11 Base64
+ * characters of the first 9 bytes of SHA-256("package_name hex_certificate"). Keystores are read
+ * with java.security.KeyStore, so no keytool, xxd or shasum is needed.
+ *
+ * Usage (JDK 11+):
+ * <pre>
+ * java SmsRetrieverHash.java --package com.example.app [--package ...]
+ *         --keystore debug.keystore [--keystore ...] [--storepass pass] [--alias name]
+ *         [--format json|tsv] [--threads n]
+ * java SmsRetrieverHash.java --help
+ * </pre>
+ * The store password can also be set with the SMS_HASH_STOREPASS environment variable. It can be
+ * left out for JKS keystores, whose certificates are readable without it.
+ */
+public class SmsRetrieverHash {
+
+    private static final String HASH_TYPE = "SHA-256";
+    public static final int NUM_HASHED_BYTES = 9;
+    public static final int NUM_BASE64_CHAR = 11;
+
+    private static final String USAGE = "Usage: sms_retriever_hash_v9.sh --package package_name"
+            + " [--package ...] --keystore keystore_file [--keystore ...] [--storepass password]"
+            + " [--alias alias] [--format json|tsv] [--threads n]";
+
+    private static final String HELP = USAGE + "\n"
+            + "\n"
+            + "Prints the SMS Retriever hash of every package for every signing certificate.\n"
+            + "\n"
+            + "Options:\n"
+            + "  --package name     application id to hash, may be repeated\n"
+            + "  --keystore file    JKS or PKCS12 keystore to read, may be repeated\n"
+            + "  --storepass pass   keystore password, required for PKCS12 keystores. Defaults\n"
+            + "                     to the SMS_HASH_STOREPASS environment variable\n"
+            + "  --alias name       only use this alias, may be repeated. Defaults to every\n"
+            + "                     alias in each keystore\n"
+            + "  --format json|tsv  output format, defaults to json\n"
+            + "  --threads n        number of hashing threads, defaults to the number of CPUs\n"
+            + "  -h, --help         show this help\n";
+
+    // First four bytes of the keystore formats that aren't PKCS12
+    private static final int JKS_MAGIC = 0xfeedfeed;
+    private static final int JCEKS_MAGIC = 0xcececece;
+
+    public static void main(String[] args) throws Exception {
+        List<String> packages = new ArrayList<>();
+        List<String> keystores = new ArrayList<>();
+        List<String> aliases = new ArrayList<>();
+        String storePass = System.getenv("SMS_HASH_STOREPASS");
+        String format = "json";
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-h") || arg.equals("--help")) {
+                System.out.print(HELP);
+                return;
+            }
+            if (i + 1 >= args.length) {
+                fail("Error: missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--package":
+                    packages.add(value);
+                    break;
+                case "--keystore":
+                    keystores.add(value);
+                    break;
+                case "--alias":
+                    aliases.add(value);
+                    break;
+                case "--storepass":
+                    storePass = value;
+                    break;
+                case "--format":
+                    format = value;
+                    break;
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        fail("Error: --threads must be a number");
+                    }
+                    break;
+                default:
+                    fail("Error: unknown option " + arg + "\n" + USAGE);
+            }
+        }
+        if (packages.isEmpty() || keystores.isEmpty()) {
+            fail(USAGE);
+        }
+        if (!format.equals("json") && !format.equals("tsv")) {
+            fail("Error: --format must be json or tsv");
+        }
+
+        char[] password = storePass == null ? null : storePass.toCharArray();
+        List<SigningCert> certs = new ArrayList<>();
+        for (String keystore : keystores) {
+            certs.addAll(loadCerts(new File(keystore), password, aliases));
+        }
+
+        List<Result> results = computeAll(packages, certs, Math.max(1, threads));
+        System.out.print(format.equals("json") ? toJson(results) : toTsv(results));
+    }
+
+    /**
+     * Compute the SMS Retriever hash for a package and its signing certificate.
+     *
+     * @param packageName the application id.
+     * @param certificate the DER encoded signing certificate.
+     */
+    public static String hash(String packageName, byte[] certificate)
+            throws NoSuchAlgorithmException {
+        String appInfo = packageName + " " + toHex(certificate);
+        MessageDigest messageDigest = MessageDigest.getInstance(HASH_TYPE);
+        messageDigest.update(appInfo.getBytes(StandardCharsets.UTF_8));
+        byte[] hashSignature = messageDigest.digest();
+
+        // truncated into NUM_HASHED_BYTES
+        hashSignature = Arrays.copyOfRange(hashSignature, 0, NUM_HASHED_BYTES);
+        // encode into Base64
+        String base64Hash = Base64.getEncoder().withoutPadding().encodeToString(hashSignature);
+        return base64Hash.substring(0, NUM_BASE64_CHAR);
+    }
+
+    private static List<Result> computeAll(List<String> packages, List<SigningCert> certs,
+                                           int threads)
+            throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (final SigningCert cert : certs) {
+                for (final String packageName : packages) {
+                    futures.add(pool.submit(() ->
+                            new Result(packageName, cert, hash(packageName, cert.encoded))));
+                }
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<SigningCert> loadCerts(File file, char[] password, List<String> aliases)
+            throws IOException, GeneralSecurityException {
+        if (!file.isFile()) {
+            fail("Error: keystore file " + file + " is not found.");
+        }
+        String type = getKeyStoreType(file);
+        KeyStore keyStore = loadKeyStore(file, type, password);
+        List<String> storeAliases = Collections.list(keyStore.aliases());
+        for (String alias : aliases) {
+            // Only an error when none of the keystores have it
+            if (!storeAliases.contains(alias)) {
+                System.err.println("Warning: alias " + alias + " is not in " + file
+                        + ", its aliases are " + storeAliases);
+            }
+        }
+
+        List<SigningCert> certs = new ArrayList<>();
+        for (String alias : storeAliases) {
+            if (!aliases.isEmpty() && !aliases.contains(alias)) {
+                continue;
+            }
+            Certificate cert = keyStore.getCertificate(alias);
+            if (cert != null) {
+                certs.add(new SigningCert(file.getPath(), alias, cert.getEncoded()));
+            }
+        }
+        if (certs.isEmpty()) {
+            if (password == null && type.equals("PKCS12")) {
+                // Certificates in a PKCS12 keystore are usually encrypted with the store password
+                fail("Error: no certificates could be read from " + file
+                        + " without a password, it is a PKCS12 keystore and needs --storepass");
+            }
+            fail("Error: no matching certificates in " + file);
+        }
+        return certs;
+    }
+
+    private static String getKeyStoreType(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int magic = in.readInt();
+            if (magic == JKS_MAGIC) {
+                return "JKS";
+            } else if (magic == JCEKS_MAGIC) {
+                return "JCEKS";
+            }
+            return "PKCS12";
+        } catch (EOFException e) {
+            fail("Error: keystore file " + file + " is empty or truncated");
+            return null;
+        }
+    }
+
+    private static KeyStore loadKeyStore(File file, String type, char[] password)
+            throws GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(type);
+        try (InputStream in = new FileInputStream(file)) {
+            keyStore.load(in, password);
+        } catch (IOException e) {
+            // A wrong password shows up as an IOException caused by UnrecoverableKeyException
+            if (e.getCause() instanceof UnrecoverableKeyException) {
+                fail("Error: wrong store password for " + type + " keystore " + file);
+            } else if (password == null && type.equals("PKCS12")) {
+                fail("Error: " + file + " is a PKCS12 keystore and needs --storepass ("
+                        + e.getMessage() + ")");
+            }
+            fail("Error: unable to read " + type + " keystore " + file + ": " + e.getMessage());
+        }
+        return keyStore;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static String toJson(List<Result> results) {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append("  {\"package\": ").append(quote(r.packageName))
+                    .append(", \"keystore\": ").append(quote(r.cert.keystore))
+                    .append(", \"alias\": ").append(quote(r.cert.alias))
+                    .append(", \"hash\": ").append(quote(r.hash))
+                    .append(i + 1 < results.size() ? "},\n" : "}\n");
+        }
+        return sb.append("]\n").toString();
+    }
+
+    private static String toTsv(List<Result> results) {
+        StringBuilder sb = new StringBuilder("package\tkeystore\talias\thash\n");
+        for (Result r : results) {
+            sb.append(r.packageName).append('\t').append(r.cert.keystore).append('\t')
+                    .append(r.cert.alias).append('\t').append(r.hash).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+
+    private static class SigningCert {
+        final String keystore;
+        final String alias;
+        final byte[] encoded;
+
+        SigningCert(String keystore, String alias, byte[] encoded) {
+            this.keystore = keystore;
+            this.alias = alias;
+            this.encoded = encoded;
+        }
+    }
+
+    private static class Result {
+        final String packageName;
+        final SigningCert cert;
+        final String hash;
+
+        Result(String packageName, SigningCert cert, String hash) {
+            this.packageName = packageName;
+            this.cert = cert;
+            this.hash = hash;
+        }
+    }
+}